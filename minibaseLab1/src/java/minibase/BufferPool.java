@@ -1,7 +1,10 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,6 +14,29 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Which page to evict when the pool is full is left to a
+ * {@link ReplacementPolicy}; by default that is LRU-2.
+ * <p>
+ * The pool can be used by many threads at once. Pages are kept in a
+ * concurrent page table, are read and written without holding a lock on the
+ * whole pool, and are never evicted while a thread is using them.
+ * <p>
+ * An off-heap pool reads the pages of HeapFiles into a fixed arena of
+ * frames allocated outside the Java heap, and pages view their frame
+ * instead of copying it. Only pages that are being changed, and the pages of
+ * other files, take heap memory beyond a small header. When a frame is
+ * reused, a page still being read elsewhere keeps a copy of it on the heap.
+ * <p>
+ * Hits, misses, reads, writes and evictions are counted in the pool's
+ * {@link BufferPoolMetrics}.
+ * <p>
+ * The pages in the pool can be saved when the database shuts down and read
+ * back in the background when it starts again, see {@link #warmUp}.
+ * <p>
+ * A read-only transaction can read a snapshot instead of taking locks, see
+ * {@link #beginSnapshot}: it sees each page as it was committed when the
+ * snapshot started, so it neither waits for writers nor makes them wait.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -21,13 +47,230 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default number of pages a sequential scan reads ahead of itself. */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /** Default number of frames a large sequential scan reads through. */
+    public static final int DEFAULT_RING_PAGES = 32;
+
+    // pages a shrinking pool evicts at a time in the background
+    private static final int SHRINK_BATCH = 64;
+    // pages a read evicts at most; one more than it adds brings a pool that
+    // is over its size back gradually
+    private static final int LOAD_EVICTIONS = 2;
+    // how long a warm-up waits after the pool has missed pages before it
+    // reads on, so pages wanted now go first
+    private static final long WARM_UP_BACKOFF_MS = 5;
+
+    // orders pages by table, then by their place in the file
+    private static final Comparator<PageId> FILE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId())
+                return Integer.compare(a.getTableId(), b.getTableId());
+            return Integer.compare(a.pageNumber(), b.pageNumber());
+        }
+    };
+
+    // reads pages ahead of sequential scans; shared by all buffer pools
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BufferPool-prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     // TODO : define instance variable
     // hint!! we need to match pid and page, So that we need additional data structure.
-    private int NP;
-    private HashMap<PageId, Page> buffer;
-    //private LRUCache<PageId, Page> buffer;
-    private HashMap<TransactionId, Set<PageId>> pageTransactions;
-    private LockManager lockManager;
+    // changed by resize
+    private volatile int NP;
+    // the page table; a frame is in it from the moment its page starts
+    // being read until the page is evicted or discarded
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+    // the pages each transaction has requested, and the frames of those it
+    // requested for writing, which stay pinned until it completes
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> pageTransactions =
+        new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Frame>> writePins =
+        new ConcurrentHashMap<TransactionId, Map<PageId, Frame>>();
+    private final LockManager lockManager;
+    // not thread-safe; used only while holding its monitor, which also
+    // covers removing frames from the page table
+    private final ReplacementPolicy policy;
+    // the frames of an off-heap pool, or null
+    private final FrameArena arena;
+    private final BufferPoolMetrics metrics = new BufferPoolMetrics(this);
+    private volatile int readAhead = DEFAULT_READ_AHEAD;
+    private volatile int ringPages = DEFAULT_RING_PAGES;
+    // frames whose committed changes are not on disk yet
+    private final AtomicInteger unwritten = new AtomicInteger();
+    private Writer writer;
+    // the committed images of pages that snapshots may still read, and the
+    // last commit each snapshot sees
+    private final PageVersions versions = new PageVersions();
+    private final ConcurrentHashMap<TransactionId, Long> snapshots =
+        new ConcurrentHashMap<TransactionId, Long>();
+
+    /**
+     * A slot of the page table. The thread that first wants a page puts an
+     * empty frame for it into the table and reads the page without holding
+     * any lock; other threads that want the page meanwhile wait on the
+     * frame. A frame is only evicted when its pin count is zero and its page
+     * is clean, and once evicted it cannot be pinned again.
+     */
+    private static class Frame {
+        final PageId pid;
+        // the hit and miss counters of the page's table
+        final BufferPoolMetrics.TableCounters counters;
+        private Page page;
+        // a RuntimeException the read threw, or a DbException if it found
+        // no page
+        private Exception failure;
+        private int pins = 0;
+        // the pins of transactions that requested the page for writing
+        private int writePins = 0;
+        private boolean evicted = false;
+        // end of the log record of the last committed change not yet
+        // written to disk, or -1 if the page on disk is up to date
+        private long lsn = -1;
+        // the scan ring the frame belongs to, or null for a frame of the
+        // main pool, which the replacement policy knows about; guarded by
+        // the policy's monitor
+        BufferRing ring;
+        // the arena frame the page was read into and the page that views
+        // it, or null
+        private ByteBuffer buffer;
+        private HeapPage view;
+
+        Frame(PageId pid, BufferPoolMetrics.TableCounters counters) {
+            this.pid = pid;
+            this.counters = counters;
+        }
+
+        /**
+         * @return false if the frame was evicted and must not be used
+         */
+        synchronized boolean pin() {
+            if (evicted)
+                return false;
+            pins++;
+            return true;
+        }
+
+        synchronized void unpin() {
+            pins--;
+        }
+
+        /** Pins a frame the caller has pinned already, for a writer. */
+        synchronized void pinForWrite() {
+            pins++;
+            writePins++;
+        }
+
+        synchronized void unpinForWrite() {
+            pins--;
+            writePins--;
+        }
+
+        /**
+         * @return true if the frame can't be evicted until a transaction
+         *   completes: it is pinned for writing or its page is dirty
+         */
+        synchronized boolean isHeld() {
+            return writePins > 0 || (page != null && page.isDirty() != null);
+        }
+
+        /**
+         * Marks the frame evicted if nobody is using it and its page is
+         * clean.
+         *
+         * @return true if the frame was marked evicted
+         */
+        synchronized boolean evict() {
+            if (evicted || pins > 0 || page == null || page.isDirty() != null || lsn >= 0)
+                return false;
+            evicted = true;
+            return true;
+        }
+
+        /**
+         * Waits for the page to be read.
+         *
+         * @throws RuntimeException the exception that reading the page threw
+         * @throws DbException if the page could not be read
+         */
+        synchronized Page await() throws DbException {
+            boolean interrupted = false;
+            while (page == null && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (page == null) {
+                if (failure instanceof DbException)
+                    throw (DbException) failure;
+                throw (RuntimeException) failure;
+            }
+            return page;
+        }
+
+        /** @return the page, or null if it is still being read */
+        synchronized Page getPage() {
+            return page;
+        }
+
+        synchronized void setPage(Page p) {
+            page = p;
+            notifyAll();
+        }
+
+        /** Completes the read, unless a newer copy was put in meanwhile. */
+        synchronized void loaded(Page p) {
+            if (page == null)
+                setPage(p);
+        }
+
+        synchronized void failed(Exception e) {
+            failure = e;
+            notifyAll();
+        }
+
+        synchronized void setBuffer(ByteBuffer buffer, HeapPage view) {
+            this.buffer = buffer;
+            this.view = view;
+        }
+
+        /**
+         * Detaches the page viewing the frame's arena frame, if any.
+         *
+         * @return the arena frame, which the caller now owns, or null
+         */
+        synchronized ByteBuffer takeBuffer() {
+            ByteBuffer b = buffer;
+            if (b != null)
+                view.detach();
+            buffer = null;
+            view = null;
+            return b;
+        }
+
+        /** @return the log offset to force before writing the page, or -1
+         *  if it need not be written */
+        synchronized long getLsn() {
+            return lsn;
+        }
+
+        /** @return true if the frame had no unwritten changes before */
+        synchronized boolean setLsn(long lsn) {
+            boolean was = this.lsn < 0;
+            this.lsn = lsn;
+            return was;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -35,11 +278,79 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruKPolicy(2, numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * as policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy a policy that is not used by any other pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicts them as
+     * policy chooses, and if offHeap is true reads pages into numPages
+     * frames allocated outside the Java heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy a policy that is not used by any other pool
+     * @param offHeap whether to allocate the frames off the Java heap
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, boolean offHeap) {
         // TODO: some code goes here
         NP = numPages;
-        buffer = new HashMap<PageId, Page>();
-        pageTransactions = new HashMap<TransactionId, Set<PageId>>();
         lockManager = new LockManager();
+        this.policy = policy;
+        this.arena = offHeap ? new FrameArena(numPages) : null;
+    }
+
+    /**
+     * @return the counters of this pool
+     */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the maximum number of pages in this pool
+     */
+    public int getNumPages() {
+        return NP;
+    }
+
+    /**
+     * @return the number of pages in this pool, including those being read
+     */
+    public int getCachedPages() {
+        return frames.size();
+    }
+
+    /**
+     * @return for each table with pages in the pool that differ from disk,
+     *   the number of such pages
+     */
+    Map<Integer, Integer> dirtyPagesByTable() {
+        HashMap<Integer, Integer> dirty = new HashMap<Integer, Integer>();
+        for (Frame frame : frames.values()) {
+            Page page = frame.getPage();
+            if (page != null && (page.isDirty() != null || frame.getLsn() >= 0)) {
+                Integer n = dirty.get(frame.pid.getTableId());
+                dirty.put(frame.pid.getTableId(), n == null ? 1 : n + 1);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * @return true if pages are read into frames outside the Java heap
+     */
+    public boolean isOffHeap() {
+        return arena != null;
     }
 
     /**
@@ -52,6 +363,17 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * A page is read without holding any lock on the pool, so other pages
+     * can be served meanwhile. A page requested READ_WRITE stays pinned
+     * until the transaction completes; other pages are pinned only until
+     * getPage returns, so a page a caller keeps may be evicted while it is
+     * still read, and stays readable outside the pool.
+     * <p>
+     * The pool only grows past its size by pages being read or used for a
+     * moment. If as many pages as it holds are dirty or pinned for writing,
+     * nothing can be evicted until a transaction completes, and getPage
+     * throws a DbException.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -62,26 +384,459 @@ public class BufferPool {
         // TODO: some code goes here
 	// hint, reture value can't be null as if there is no matching page, we will add new page to the buffer pool.
 	
+		return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but if the page is not in the pool and perm is READ_ONLY, reads it into
+     * a frame of ring rather than the main pool. A page found in the pool is
+     * returned without counting as a use for the replacement policy.
+     *
+     * @param ring the scan's ring, or null to use the main pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+		Long snapshot = tid == null ? null : snapshots.get(tid);
+		if (snapshot != null)
+			return getSnapshotPage(pid, perm, ring, snapshot);
+		if (perm != Permissions.READ_ONLY)
+			ring = null;
 		lockManager.requestLock(tid,pid,perm);
 		
-        Page page = buffer.get(pid);
-        if(page != null) {
-        	if(pageTransactions.get(tid) == null) 
-        		pageTransactions.put(tid, new HashSet<PageId>());
-        	pageTransactions.get(tid).add(pid);
-        	return page;
+		Frame frame = pin(pid, ring);
+		try {
+			Page page = frame.await();
+			if (ring == null)
+				accessed(frame);
+			if (tid != null) {
+				pagesOf(tid).add(pid);
+				if (perm == Permissions.READ_WRITE)
+					pinForWrite(tid, frame);
+			}
+			return page;
+		} finally {
+			frame.unpin();
+		}
+    }
+
+    /**
+     * Starts tid as a read-only transaction reading a snapshot: every page
+     * it gets is a copy of the page as committed when the snapshot started,
+     * served from the pool or from images kept by later commits. It takes no
+     * locks and cannot change pages. The snapshot ends, and the images only
+     * it needed are dropped, when tid completes.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, versions.beginSnapshot());
+    }
+
+    /**
+     * @return true if tid reads a snapshot, see {@link #beginSnapshot}
+     */
+    public boolean isSnapshot(TransactionId tid) {
+        return tid != null && snapshots.containsKey(tid);
+    }
+
+    /**
+     * @return the number of pages of which images are kept for snapshots
+     */
+    int getVersionedPages() {
+        return versions.size();
+    }
+
+    /**
+     * Gets a page for a transaction reading a snapshot, without locking it.
+     */
+    private Page getSnapshotPage(PageId pid, Permissions perm, BufferRing ring, long snapshot)
+        throws DbException {
+        if (perm != Permissions.READ_ONLY)
+            throw new DbException("a snapshot is read-only");
+        Frame frame = pin(pid, ring);
+        try {
+            Page page = frame.await();
+            if (ring == null)
+                accessed(frame);
+            return versions.read(page, snapshot);
+        } finally {
+            frame.unpin();
         }
-        
-        if(buffer.size() >= NP) evictPage();
-        
-        page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-        buffer.put(pid, page);
-        
-        if(pageTransactions.get(tid) == null) 
-        		pageTransactions.put(tid, new HashSet<PageId>());
-        	pageTransactions.get(tid).add(pid);
-        return page;        	
+    }
+
+    /**
+     * Tells the policy a frame was used, moving it into the main pool first
+     * if it belongs to a scan ring.
+     */
+    private void accessed(Frame frame) {
+        synchronized (policy) {
+            promote(frame);
+            policy.pageAccessed(frame.pid);
+        }
+    }
+
+    /**
+     * Moves a frame of a scan ring into the main pool. The caller must hold
+     * the policy's monitor.
+     */
+    private void promote(Frame frame) {
+        if (frame.ring != null && frames.get(frame.pid) == frame) {
+            frame.ring = null;
+            if (frame.getPage() != null)
+                policy.pageAdded(frame.pid);
+        }
+    }
+
+    private Frame newFrame(PageId pid) {
+        return new Frame(pid, metrics.table(pid.getTableId()));
+    }
+
+    /**
+     * Returns the frame of pid, pinned, and counts a hit or a miss. If the
+     * page is not in the pool, an empty frame is added for it, in ring if
+     * that is not null, and the page is read into it.
+     */
+    private Frame pin(PageId pid, BufferRing ring) {
+        while (true) {
+            Frame frame = frames.get(pid);
+            if (frame == null) {
+                Frame fresh = newFrame(pid);
+                fresh.ring = ring;
+                fresh.pin();
+                frame = frames.putIfAbsent(pid, fresh);
+                if (frame == null) {
+                    fresh.counters.misses.increment();
+                    if (ring != null)
+                        recycle(ring, pid);
+                    load(fresh);
+                    return fresh;
+                }
+            }
+            if (frame.pin()) {
+                frame.counters.hits.increment();
+                return frame;
+            }
+            // evicted since we looked it up; look again
+        }
+    }
+
+    /**
+     * Reads the page of a new frame, making room for it first. A failure is
+     * handed to the threads waiting for the page; so is a full pool, if as
+     * many frames as it holds stay until their transactions complete.
+     */
+    private void load(Frame frame) {
+        Page page = null;
+        Exception failure = null;
+        if (!makeRoom(LOAD_EVICTIONS) && heldFrames() >= NP) {
+            failure = new DbException("the buffer pool is full of pages held by transactions");
+        } else {
+            try {
+                DbFile file = Database.getCatalog().getDbFile(frame.pid.getTableId());
+                // other files, and reads while every frame is taken, use the heap
+                ByteBuffer buffer = arena != null && file instanceof HeapFile ? arena.allocate() : null;
+                long start = System.nanoTime();
+                if (buffer == null) {
+                    page = file.readPage(frame.pid);
+                } else {
+                    try {
+                        HeapPage view = ((HeapFile) file).readPage(frame.pid, buffer);
+                        if (view == null)
+                            arena.free(buffer);
+                        else
+                            frame.setBuffer(buffer, view);
+                        page = view;
+                    } catch (RuntimeException e) {
+                        arena.free(buffer);
+                        throw e;
+                    }
+                }
+                metrics.pageRead(System.nanoTime() - start);
+                // readPage returns null if it failed to read
+                if (page == null)
+                    failure = new DbException("can't read page " + frame.pid);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            synchronized (policy) {
+                frames.remove(frame.pid, frame);
+            }
+            frame.failed(failure);
+            return;
+        }
+        frame.loaded(page);
+        added(frame);
+    }
+
+    /**
+     * Tells the policy about a new frame, unless it was discarded already.
+     */
+    private void added(Frame frame) {
+        synchronized (policy) {
+            if (frames.get(frame.pid) != frame)
+                release(frame);
+            else if (frame.ring == null)
+                policy.pageAdded(frame.pid);
+        }
+    }
+
+    /**
+     * Returns the arena frame of a frame removed from the page table, if it
+     * has one, once the page viewing it has been detached.
+     */
+    private void release(Frame frame) {
+        ByteBuffer buffer = frame.takeBuffer();
+        if (buffer != null)
+            arena.free(buffer);
+    }
+
+    /**
+     * Sets how many pages of one table a transaction may lock before its
+     * page locks are escalated to a lock on the table, see
+     * {@link LockManager}.
+     */
+    public void setLockEscalation(int pages) {
+        lockManager.setEscalationThreshold(pages);
+    }
+
+    /**
+     * Sets the number of frames a large sequential scan reads through;
+     * 0 makes scans read into the main pool like any other access.
+     */
+    public void setRingPages(int pages) {
+        ringPages = pages;
+    }
+
+    /**
+     * Returns a ring for a sequential scan of a table of tablePages pages,
+     * or null if the table is small enough to read into the main pool. A
+     * ring is used for tables larger than a quarter of the pool that do not
+     * fit into its free frames, i.e. whose scan would push out other pages;
+     * it holds the configured number of frames, at least twice the read-ahead so
+     * pages read ahead are still there when the scan gets to them, but
+     * never more than a quarter of the pool.
+     */
+    public BufferRing newScanRing(int tablePages) {
+        if (ringPages <= 0 || tablePages <= NP / 4 || tablePages <= NP - frames.size())
+            return null;
+        return new BufferRing(Math.max(1, Math.min(NP / 4,
+                Math.max(ringPages, 2 * getReadAhead() + 2))));
+    }
+
+    /**
+     * Gives the frames of a ring back to the main pool once its scan is
+     * done, where the replacement policy can evict them.
+     */
+    public void releaseRing(BufferRing ring) {
+        synchronized (policy) {
+            for (PageId pid : ring.clear()) {
+                Frame frame = pid == null ? null : frames.get(pid);
+                if (frame != null && frame.ring == ring)
+                    promote(frame);
+            }
+        }
+    }
+
+    /**
+     * Puts pid into the next slot of ring and evicts the page that slot
+     * held, unless it moved to the main pool or is in use.
+     */
+    private void recycle(BufferRing ring, PageId pid) {
+        PageId old = ring.add(pid);
+        if (old == null)
+            return;
+        synchronized (policy) {
+            Frame frame = frames.get(old);
+            if (frame != null && frame.ring == ring && frame.evict()) {
+                frames.remove(old, frame);
+                release(frame);
+                metrics.evicted();
+            }
+        }
+    }
+
+    private Set<PageId> pagesOf(TransactionId tid) {
+        Set<PageId> pages = pageTransactions.get(tid);
+        if (pages == null) {
+            pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> other = pageTransactions.putIfAbsent(tid, pages);
+            if (other != null)
+                pages = other;
+        }
+        return pages;
+    }
+
+    /**
+     * Pins frame, which the caller has pinned already, until tid completes.
+     */
+    private void pinForWrite(TransactionId tid, Frame frame) {
+        Map<PageId, Frame> pinned = writePins.get(tid);
+        if (pinned == null) {
+            pinned = new ConcurrentHashMap<PageId, Frame>();
+            Map<PageId, Frame> other = writePins.putIfAbsent(tid, pinned);
+            if (other != null)
+                pinned = other;
+        }
+        if (pinned.get(frame.pid) != frame) {
+            frame.pinForWrite();
+            Frame old = pinned.put(frame.pid, frame);
+            if (old != null)
+                old.unpinForWrite();
+        }
+    }
+
+    /**
+     * Sets how many pages a sequential scan asks to have read ahead of the
+     * page it is on; 0 turns read-ahead off.
+     */
+    public void setReadAhead(int pages) {
+        readAhead = pages;
+    }
+
+    /**
+     * @return the number of pages a sequential scan should ask to have read
+     *   ahead, never more than half the pool so read-ahead can't push out
+     *   the pages it just read
+     */
+    public int getReadAhead() {
+        return Math.max(0, Math.min(readAhead, NP / 2));
+    }
+
+    /**
+     * Asks for the page to be read into the buffer pool in the background,
+     * without locking it, so that a later getPage finds it there, or waits
+     * for the read to complete. Does nothing if the page is already cached
+     * or being read, or if no page can be evicted to make room for it.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Like {@link #prefetchPage(PageId)}, but reads the page into a frame
+     * of ring if that is not null.
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+        if (frames.containsKey(pid) || ring == null && frames.size() >= NP && !evictPage())
+            return;
+        final Frame fresh = newFrame(pid);
+        fresh.ring = ring;
+        fresh.pin();
+        if (frames.putIfAbsent(pid, fresh) != null)
+            return;
+        if (ring != null)
+            recycle(ring, pid);
+        prefetcher.execute(new Runnable() {
+            public void run() {
+                try {
+                    load(fresh);
+                } finally {
+                    fresh.unpin();
+                }
+            }
+        });
+    }
 
+    /**
+     * Writes the ids of the pages in the main pool to file, in file order,
+     * so {@link #warmUp} can read them back in after a restart. Pages of
+     * scan rings are left out.
+     */
+    public void saveResidentPages(File file) throws IOException {
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        synchronized (policy) {
+            for (Frame frame : frames.values()) {
+                if (frame.ring == null && frame.getPage() != null)
+                    pids.add(frame.pid);
+            }
+        }
+        sortInFileOrder(pids);
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(pids.size());
+            for (PageId pid : pids) {
+                dos.writeInt(pid.getTableId());
+                dos.writeInt(pid.pageNumber());
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Starts reading the pages saved by {@link #saveResidentPages} into the
+     * pool in a background thread, one at a time in file order, and returns
+     * at once. The file is deleted once read.
+     * <p>
+     * The warm-up only fills free frames: it stops when the pool is full
+     * rather than evict a page. It backs off whenever the pool has missed a
+     * page since its last read, so reads that queries wait for go first.
+     * Pages of tables no longer in the catalog, or beyond the end of their
+     * file, are skipped.
+     *
+     * @return the warm-up thread, or null if there is nothing to read
+     */
+    public Thread warmUp(File file) {
+        final ArrayList<PageId> pids = new ArrayList<PageId>();
+        if (!file.exists())
+            return null;
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int n = dis.readInt();
+                for (int i = 0; i < n; i++)
+                    pids.add(new HeapPageId(dis.readInt(), dis.readInt()));
+            } finally {
+                dis.close();
+                file.delete();
+            }
+        } catch (IOException e) {
+            // a truncated list is only a hint lost
+            return null;
+        }
+        sortInFileOrder(pids);
+        Thread t = new Thread("BufferPool-warmup") {
+            public void run() {
+                warm(pids);
+            }
+        };
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return t;
+    }
+
+    private void warm(List<PageId> pids) {
+        long misses = metrics.getMisses();
+        for (PageId pid : pids) {
+            try {
+                for (long now; (now = metrics.getMisses()) != misses; misses = now)
+                    Thread.sleep(WARM_UP_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frames.size() >= NP)
+                return;
+            if (Database.getCatalog().getTableName(pid.getTableId()) == null)
+                continue;
+            Frame fresh = newFrame(pid);
+            fresh.pin();
+            try {
+                if (frames.putIfAbsent(pid, fresh) == null)
+                    load(fresh);
+            } finally {
+                fresh.unpin();
+            }
+        }
+    }
+
+    private static void sortInFileOrder(List<PageId> pids) {
+        Collections.sort(pids, FILE_ORDER);
     }
 
     /**
@@ -129,24 +884,31 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj3
         
-        if(!pageTransactions.containsKey(tid)){
-        	lockManager.releaseAllPages(tid);
+        Long snapshot = tid == null ? null : snapshots.remove(tid);
+        if(snapshot != null){
+        	versions.endSnapshot(snapshot);
         	return;
         }
-        
-        Iterator itr = pageTransactions.get(tid).iterator();
-        while(itr.hasNext()){
-        	PageId pid = (PageId)itr.next();
-        	if(buffer.containsKey(pid) && buffer.get(pid).isDirty() == tid){
-        		if(commit) flushPage(pid);
-        		else{
-        			Page p = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-        			buffer.put(pid,p);
+        Set<PageId> pages = tid == null ? null : pageTransactions.remove(tid);
+        Map<PageId, Frame> pinned = tid == null ? null : writePins.remove(tid);
+        if(pages != null){
+        	if(commit) writeBack(tid, pages);
+        	for(PageId pid : pages){
+        		Frame frame = frames.get(pid);
+        		Page page = frame == null ? null : frame.getPage();
+        		if(!commit && page != null && page.isDirty() == tid){
+        			// committed changes that are not on disk yet are in the
+        			// before image
+        			if(frame.getLsn() >= 0) frame.setPage(page.getBeforeImage());
+        			else frame.setPage(readPage(pid));
         		}
         	}
         }
+        if(pinned != null){
+        	for(Frame frame : pinned.values())
+        		frame.unpinForWrite();
+        }
         lockManager.releaseAllPages(tid);
-        pageTransactions.get(tid).clear();
     }
 
     /**
@@ -174,7 +936,7 @@ public class BufferPool {
 		while(itr.hasNext()){
 			Page page = (Page)itr.next();
 			page.markDirty(true,tid);
-			buffer.put(page.getId(),page);
+			cachePage(tid, page);
 		}
     }
 
@@ -199,7 +961,7 @@ public class BufferPool {
         DbFile file = Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
         Page page = file.deleteTuple(tid,t);
         page.markDirty(true,tid);
-        buffer.put(page.getId(),page);
+        cachePage(tid, page);
     }
 
     /**
@@ -207,19 +969,15 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break minibase if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj3
-        Iterator itr1 = pageTransactions.keySet().iterator();
-        while(itr1.hasNext()){
-        	Iterator itr2= pageTransactions.get(itr1.next()).iterator();
-        	while(itr2.hasNext()){
-        		PageId pid = (PageId)itr2.next();
-        		Page page = buffer.get(pid);
-        		if(page.isDirty() != null) this.flushPage(page.getId());
-        	}
+        ArrayList<Frame> dirty = new ArrayList<Frame>();
+        for(Frame frame : frames.values()){
+        	Page page = frame.getPage();
+        	if(page != null && (page.isDirty() != null || frame.getLsn() >= 0)) dirty.add(frame);
         }
-        	
+        flushFrames(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -227,64 +985,446 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
 	// not necessary for proj3
-		buffer.remove(pid);
+		synchronized (policy) {
+			Frame frame = frames.remove(pid);
+			if (frame != null) {
+				policy.pageRemoved(pid);
+				release(frame);
+				if (!frame.setLsn(-1))
+					unwritten.decrementAndGet();
+			}
+		}
+    }
+
+    /**
+     * Puts a page tid changed into the pool, replacing any cached copy of
+     * it, and keeps it pinned until tid completes.
+     */
+    private void cachePage(TransactionId tid, Page page) {
+        PageId pid = page.getId();
+        while (true) {
+            Frame frame = frames.get(pid);
+            boolean fresh = frame == null;
+            if (fresh) {
+                frame = newFrame(pid);
+                frame.setPage(page);
+                frame.pin();
+                if (frames.putIfAbsent(pid, frame) != null)
+                    continue;
+                added(frame);
+                makeRoom(LOAD_EVICTIONS);
+            } else if (!frame.pin()) {
+                continue;
+            }
+            try {
+                frame.setPage(page);
+                synchronized (policy) {
+                    promote(frame);
+                }
+                if (tid != null) {
+                    pagesOf(tid).add(pid);
+                    pinForWrite(tid, frame);
+                }
+            } finally {
+                frame.unpin();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Reads a page from its file, bypassing the pool.
+     */
+    private Page readPage(PageId pid) {
+        long start = System.nanoTime();
+        Page page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+        metrics.pageRead(System.nanoTime() - start);
+        return page;
+    }
+
+    /**
+     * Writes a page to its file.
+     */
+    private void writePage(Page page) throws IOException {
+        long start = System.nanoTime();
+        Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
+        metrics.pageWritten(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the pages of frames to disk, grouped by file and in page order,
+     * so runs of adjacent pages of a HeapFile go out in one write, and syncs
+     * each HeapFile written to once at the end. The log is forced first up to
+     * the last committed change of any of the pages.
+     */
+    private void flushFrames(List<Frame> batch) throws IOException {
+        Collections.sort(batch, new Comparator<Frame>() {
+            public int compare(Frame a, Frame b) {
+                return FILE_ORDER.compare(a.pid, b.pid);
+            }
+        });
+        ArrayList<Frame> written = new ArrayList<Frame>();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        long[] lsns = new long[batch.size()];
+        long lastLsn = -1;
+        for(Frame frame : batch){
+        	Page page = frame.getPage();
+        	if(page == null)
+        		continue;
+        	lsns[written.size()] = frame.getLsn();
+        	lastLsn = Math.max(lastLsn, frame.getLsn());
+        	written.add(frame);
+        	pages.add(page);
+        }
+        if(lastLsn >= 0) Database.getLogFile().forceTo(lastLsn);
+
+        long start = System.nanoTime();
+        for(int i = 0, j; i < pages.size(); i = j){
+        	int tableId = pages.get(i).getId().getTableId();
+        	for(j = i + 1; j < pages.size() && pages.get(j).getId().getTableId() == tableId; j++)
+        		;
+        	DbFile file = Database.getCatalog().getDbFile(tableId);
+        	if(file instanceof HeapFile){
+        		((HeapFile) file).writePages(pages.subList(i, j));
+        		((HeapFile) file).sync();
+        	} else {
+        		for(Page page : pages.subList(i, j))
+        			file.writePage(page);
+        	}
+        }
+        metrics.pageWritten(pages.size(), System.nanoTime() - start);
+
+        for(int i = 0; i < written.size(); i++){
+        	pages.get(i).markDirty(false,null);
+        	if(lsns[i] >= 0 && !written.get(i).setLsn(-1)) unwritten.decrementAndGet();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj3
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-        Page page = buffer.get(pid);
-        file.writePage(page);
-        buffer.get(pid).markDirty(false,null);
+        Frame frame = frames.get(pid);
+        if(frame != null)
+        	flushFrames(new ArrayList<Frame>(Collections.singletonList(frame)));
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj3
-        Set<PageId> set = pageTransactions.get(tid);
-        Iterator itr = set.iterator();
-        while(itr.hasNext()){
-        	PageId pid = (PageId)itr.next();
-        	if(buffer.containsKey(pid)) flushPage(pid);
+        Set<PageId> set = tid == null ? null : pageTransactions.get(tid);
+        if(set == null)
+        	return;
+        writeBack(tid, set);
+        for(PageId pid : set){
             lockManager.releaseLock(tid, pid);
         }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Makes the changes tid made to pages durable. Without a background
+     * writer the pages are written to disk, in file order. With one, an UPDATE record is
+     * logged for each page and the log forced, and the pages are left for
+     * the writer.
+     * <p>
+     * The committed images the changes replace are kept for snapshots that
+     * started before, and the pages' before images become the new committed
+     * images.
+     */
+    private void writeBack(TransactionId tid, Set<PageId> pages) throws IOException {
+        Writer w = writer;
+        ArrayList<Frame> changed = new ArrayList<Frame>();
+        long commit = -1;
+        try {
+            long lastLsn = -1;
+            for(PageId pid : pages){
+            	Frame frame = frames.get(pid);
+            	Page page = frame == null ? null : frame.getPage();
+            	if(page == null || page.isDirty() != tid)
+            		continue;
+            	if(commit < 0) commit = versions.beginCommit();
+            	Page before = page.getBeforeImage();
+            	versions.retain(pid, before, commit);
+            	if(w == null){
+            		changed.add(frame);
+            		continue;
+            	}
+            	lastLsn = Database.getLogFile().logWrite(tid, before, page);
+            	page.setBeforeImage();
+            	page.markDirty(false,null);
+            	if(frame.setLsn(lastLsn))
+            		unwritten.incrementAndGet();
+            }
+            if(lastLsn >= 0)
+            	Database.getLogFile().forceTo(lastLsn);
+            flushFrames(changed);
+            for(Frame frame : changed){
+            	Page page = frame.getPage();
+            	if(page != null) page.setBeforeImage();
+            }
+        } finally {
+        	if(commit >= 0) versions.endCommit(commit);
+        }
+    }
+
+    /**
+     * Starts a thread that writes pages with committed changes back to
+     * disk, so commits only need to force the log and evictions mostly
+     * find clean pages. Until {@link #stopWriter} is called, a commit logs
+     * the pages it changed instead of writing them. The writer forces the
+     * log up to a page's last update before writing the page.
+     * <p>
+     * The writer sleeps while at most dirtyRatio of the pool holds unwritten
+     * changes; above that it writes pages, those changed longest ago first,
+     * at up to pagesPerSecond.
+     *
+     * @param dirtyRatio between 0 and 1; 0 writes pages as soon as they are
+     *   committed
+     * @param pagesPerSecond the most pages written per second
+     */
+    public synchronized void startWriter(double dirtyRatio, int pagesPerSecond) {
+        stopWriter();
+        writer = new Writer(dirtyRatio, pagesPerSecond);
+        writer.start();
+    }
+
+    /**
+     * Stops the background writer; commits write their pages again. Pages
+     * with unwritten changes are still written when they are evicted or
+     * flushed.
+     */
+    public synchronized void stopWriter() {
+        if (writer == null)
+            return;
+        writer.shutdown();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * @return the number of pages in the pool with committed changes that
+     *   are not on disk yet
+     */
+    public int getUnwrittenPages() {
+        return unwritten.get();
+    }
+
+    private class Writer extends Thread {
+        private static final int TICKS_PER_SECOND = 10;
+        private final double dirtyRatio;
+        private final int pagesPerTick;
+        // not interrupted to stop: an interrupt during a write would close
+        // the file's channel for everyone
+        private volatile boolean stopped = false;
+        private final Object ticks = new Object();
+
+        Writer(double dirtyRatio, int pagesPerSecond) {
+            super("BufferPool-writer");
+            setDaemon(true);
+            this.dirtyRatio = dirtyRatio;
+            this.pagesPerTick = Math.max(1, pagesPerSecond / TICKS_PER_SECOND);
+        }
+
+        void shutdown() {
+            synchronized (ticks) {
+                stopped = true;
+                ticks.notifyAll();
+            }
+        }
+
+        public void run() {
+            // stop by itself once the pool is no longer in use
+            while (!stopped && Database.getBufferPool() == BufferPool.this) {
+                try {
+                    if (unwritten.get() > dirtyRatio * NP) {
+                        for (Frame frame : oldestUnwritten(pagesPerTick))
+                            writeFrame(frame);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                synchronized (ticks) {
+                    if (stopped)
+                        return;
+                    try {
+                        ticks.wait(1000 / TICKS_PER_SECOND);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return up to n frames with unwritten changes, those changed longest
+     *   ago first
+     */
+    private List<Frame> oldestUnwritten(int n) {
+        ArrayList<Frame> found = new ArrayList<Frame>();
+        for (Frame frame : frames.values()) {
+            if (frame.getLsn() >= 0)
+                found.add(frame);
+        }
+        Collections.sort(found, new Comparator<Frame>() {
+            public int compare(Frame a, Frame b) {
+                return Long.compare(a.getLsn(), b.getLsn());
+            }
+        });
+        return found.subList(0, Math.min(n, found.size()));
+    }
+
+    /**
+     * Writes the committed changes of a frame to disk, under a shared lock
+     * on its page so no transaction is changing it meanwhile. Gives up if
+     * the lock is not free right away. The lock is taken by a transaction of
+     * its own, so threads writing the same frame at once each hold one.
+     *
+     * @return true if the page was written
+     */
+    private boolean writeFrame(Frame frame) throws IOException {
+        if (!frame.pin())
+            return false;
+        TransactionId tid = new TransactionId();
+        try {
+            if (!lockManager.tryLock(tid, frame.pid, Permissions.READ_ONLY))
+                return false;
+            Page page = frame.getPage();
+            long lsn = frame.getLsn();
+            if (page == null || lsn < 0 || page.isDirty() != null)
+                return false;
+            Database.getLogFile().forceTo(lsn);
+            writePage(page);
+            // another thread may have written it meanwhile
+            if (!frame.setLsn(-1))
+                unwritten.decrementAndGet();
+            return true;
+        } finally {
+            lockManager.releaseAllPages(tid);
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Evicts up to max pages, fewer if the pool gets back to its size or no
+     * page can be evicted. If all pages are dirty or pinned, committed
+     * changes that are not on disk yet are written so their pages can go.
+     *
+     * @return false if the pool is still too large and nothing more can be
+     *   evicted for now
+     */
+    private boolean makeRoom(int max) {
+        for (int evicted = 0; evicted < max && frames.size() > NP; ) {
+            if (evictPage()) {
+                evicted++;
+                continue;
+            }
+            List<Frame> oldest = oldestUnwritten(1);
+            try {
+                if (oldest.isEmpty() || !writeFrame(oldest.get(0)))
+                    return false;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of frames that stay until a transaction completes
+     */
+    private int heldFrames() {
+        int n = 0;
+        for (Frame frame : frames.values()) {
+            if (frame.isHeld())
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Changes the number of pages the pool holds while it is in use. A
+     * larger size takes effect at once. For a smaller one, clean pages are
+     * evicted in the background, a batch at a time, until the pool is down
+     * to its new size; committed changes not on disk yet are written first.
+     * Pages that are dirty or in use stay until they are neither, and no
+     * lock is released.
+     *
+     * @param numPages the new maximum number of pages in this pool
+     */
+    public void resize(int numPages) {
+        if (numPages < 1)
+            throw new IllegalArgumentException("a buffer pool needs at least one page");
+        NP = numPages;
+        if (arena != null)
+            arena.resize(numPages);
+        if (frames.size() > numPages)
+            prefetcher.execute(new Shrinker());
+    }
+
+    /**
+     * Evicts a batch of pages and queues itself again behind other
+     * background reads until the pool is at its size, or until no page can
+     * be evicted; later reads go on evicting then.
      */
-    private synchronized  void evictPage() throws DbException {
+    private class Shrinker implements Runnable {
+        public void run() {
+            try {
+                if (makeRoom(SHRINK_BATCH) && frames.size() > NP)
+                    prefetcher.execute(this);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Discards a page from the buffer pool: the first page the replacement
+     * policy offers that is clean and not pinned. Dirty pages are never
+     * evicted (NO STEAL).
+     *
+     * @return false if every page is dirty or pinned, so nothing was evicted
+     */
+    private boolean evictPage() {
         // some code goes here
         // not necessary for proj3
-        Page page=null;
-        Iterator<PageId> itr = buffer.keySet().iterator();
-        while(itr.hasNext()){
-        	PageId pid = itr.next();
-        	Page p = buffer.get(pid);
-        	if(p.isDirty() == null){
-        		buffer.remove(pid);
-        		page = p;
-        		break;
-        	}
+        synchronized (policy) {
+            Iterator<PageId> itr = policy.victims();
+            while (itr.hasNext()) {
+                PageId pid = itr.next();
+                Frame frame = frames.get(pid);
+                if (frame != null && frame.evict()) {
+                    // locks on the page stay with their transactions
+                    frames.remove(pid, frame);
+                    policy.pageRemoved(pid);
+                    release(frame);
+                    metrics.evicted();
+                    return true;
+                }
+            }
+            // frames of rings whose scans were never closed
+            for (Frame frame : frames.values()) {
+                if (frame.ring != null && frame.evict()) {
+                    frames.remove(frame.pid, frame);
+                    release(frame);
+                    metrics.evicted();
+                    return true;
+                }
+            }
+            metrics.evictionFailed();
+            return false;
         }
-        
-        try{
-        	if(page == null)
-       	 		throw new DbException("");
-        	if(page.isDirty() != null) flushPage(page.getId());
-        	lockManager.removePage(page.getId());
-        } catch(Exception e){}
-
-	}
+    }
 }
@@ -0,0 +1,241 @@
+package minibase;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMetrics counts what a BufferPool does: hits and misses per
+ * table, pages read and written and the time that took, and evictions.
+ * Counters are LongAdders, so threads using the pool at once don't contend
+ * on them, and a hit costs one increment: each frame keeps the counters of
+ * its table.
+ * <p>
+ * The metrics of the database's current pool are registered with the
+ * platform MBean server as {@value #OBJECT_NAME}, and printed by the
+ * SHOW BUFFERPOOL command of the Parser.
+ *
+ * @see BufferPool#getMetrics
+ */
+public class BufferPoolMetrics implements BufferPoolMetricsMXBean {
+    /** The name the metrics of the current pool are registered under. */
+    public static final String OBJECT_NAME = "minibase:type=BufferPool";
+
+    /** The hit and miss counters of one table. */
+    static class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+
+    private final BufferPool pool;
+    private final ConcurrentHashMap<Integer, TableCounters> tables =
+        new ConcurrentHashMap<Integer, TableCounters>();
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionFailures = new LongAdder();
+
+    BufferPoolMetrics(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Registers metrics with the platform MBean server, replacing the
+     * metrics of the pool used before.
+     */
+    static synchronized void register(BufferPoolMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the counters of table tableId, created on first use
+     */
+    TableCounters table(int tableId) {
+        TableCounters t = tables.get(tableId);
+        if (t == null) {
+            TableCounters fresh = new TableCounters();
+            t = tables.putIfAbsent(tableId, fresh);
+            if (t == null)
+                t = fresh;
+        }
+        return t;
+    }
+
+    void pageRead(long nanos) {
+        pagesRead.increment();
+        readNanos.add(nanos);
+    }
+
+    void pageWritten(long nanos) {
+        pageWritten(1, nanos);
+    }
+
+    void pageWritten(int pages, long nanos) {
+        pagesWritten.add(pages);
+        writeNanos.add(nanos);
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void evictionFailed() {
+        evictionFailures.increment();
+    }
+
+    public long getHits() {
+        long n = 0;
+        for (TableCounters t : tables.values())
+            n += t.hits.sum();
+        return n;
+    }
+
+    public long getMisses() {
+        long n = 0;
+        for (TableCounters t : tables.values())
+            n += t.misses.sum();
+        return n;
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long all = hits + getMisses();
+        return all == 0 ? 0 : (double) hits / all;
+    }
+
+    public long getPagesRead() {
+        return pagesRead.sum();
+    }
+
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    public double getAverageReadMicros() {
+        return average(readNanos, pagesRead);
+    }
+
+    public double getAverageWriteMicros() {
+        return average(writeNanos, pagesWritten);
+    }
+
+    private static double average(LongAdder nanos, LongAdder count) {
+        long n = count.sum();
+        return n == 0 ? 0 : nanos.sum() / 1000.0 / n;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getEvictionFailures() {
+        return evictionFailures.sum();
+    }
+
+    public int getNumPages() {
+        return pool.getNumPages();
+    }
+
+    public void setNumPages(int pages) {
+        pool.resize(pages);
+    }
+
+    public int getCachedPages() {
+        return pool.getCachedPages();
+    }
+
+    public int getDirtyPages() {
+        int n = 0;
+        for (int d : pool.dirtyPagesByTable().values())
+            n += d;
+        return n;
+    }
+
+    public Map<String, Long> getTableHits() {
+        TreeMap<String, Long> m = new TreeMap<String, Long>();
+        for (Map.Entry<Integer, TableCounters> e : tables.entrySet())
+            m.put(tableName(e.getKey()), e.getValue().hits.sum());
+        return m;
+    }
+
+    public Map<String, Long> getTableMisses() {
+        TreeMap<String, Long> m = new TreeMap<String, Long>();
+        for (Map.Entry<Integer, TableCounters> e : tables.entrySet())
+            m.put(tableName(e.getKey()), e.getValue().misses.sum());
+        return m;
+    }
+
+    public Map<String, Integer> getTableDirtyPages() {
+        TreeMap<String, Integer> m = new TreeMap<String, Integer>();
+        for (Map.Entry<Integer, Integer> e : pool.dirtyPagesByTable().entrySet())
+            m.put(tableName(e.getKey()), e.getValue());
+        return m;
+    }
+
+    /**
+     * @return the name of a table in the catalog, or its id if it has none
+     */
+    private static String tableName(int tableId) {
+        String name = Database.getCatalog().getTableName(tableId);
+        return name != null ? name : String.valueOf(tableId);
+    }
+
+    public void reset() {
+        for (TableCounters t : tables.values()) {
+            t.hits.reset();
+            t.misses.reset();
+        }
+        pagesRead.reset();
+        readNanos.reset();
+        pagesWritten.reset();
+        writeNanos.reset();
+        evictions.reset();
+        evictionFailures.reset();
+    }
+
+    /**
+     * @return the counters as a report for people to read, with one line
+     *   per table that has been used
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        int dirty = getDirtyPages();
+        sb.append(String.format("pages cached %d of %d, dirty %d (%.1f%%)%n", getCachedPages(),
+                getNumPages(), dirty, 100.0 * dirty / Math.max(1, getNumPages())));
+        sb.append(String.format("hits %d, misses %d, hit ratio %.3f%n", getHits(), getMisses(), getHitRatio()));
+        sb.append(String.format("pages read %d (avg %.1f us), written %d (avg %.1f us)%n", getPagesRead(),
+                getAverageReadMicros(), getPagesWritten(), getAverageWriteMicros()));
+        sb.append(String.format("evictions %d, eviction failures %d%n", getEvictions(), getEvictionFailures()));
+
+        Map<String, Long> hits = getTableHits();
+        Map<String, Long> misses = getTableMisses();
+        Map<String, Integer> dirtyPages = getTableDirtyPages();
+        TreeSet<String> names = new TreeSet<String>(hits.keySet());
+        names.addAll(dirtyPages.keySet());
+        if (!names.isEmpty())
+            sb.append(String.format("%n%-24s %12s %12s %9s %7s%n", "table", "hits", "misses", "hit ratio", "dirty"));
+        for (String name : names) {
+            long h = hits.containsKey(name) ? hits.get(name) : 0;
+            long m = misses.containsKey(name) ? misses.get(name) : 0;
+            int d = dirtyPages.containsKey(name) ? dirtyPages.get(name) : 0;
+            sb.append(String.format("%-24s %12d %12d %9.3f %7d%n", name, h, m,
+                    h + m == 0 ? 0.0 : (double) h / (h + m), d));
+        }
+        return sb.toString();
+    }
+}
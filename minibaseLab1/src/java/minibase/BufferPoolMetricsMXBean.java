@@ -0,0 +1,65 @@
+package minibase;
+
+import java.util.Map;
+
+/**
+ * The counters of a BufferPool as seen through JMX, registered as
+ * {@value BufferPoolMetrics#OBJECT_NAME}. Counts are since the pool was
+ * created or the counters were last reset; the page counts are of the pool
+ * as it is now.
+ *
+ * @see BufferPoolMetrics
+ */
+public interface BufferPoolMetricsMXBean {
+
+    /** @return requests for pages that were in the pool */
+    public long getHits();
+
+    /** @return requests for pages that had to be read */
+    public long getMisses();
+
+    /** @return hits over all requests, or 0 if there were none */
+    public double getHitRatio();
+
+    /** @return pages read from disk, including those read ahead */
+    public long getPagesRead();
+
+    /** @return pages written to disk */
+    public long getPagesWritten();
+
+    /** @return the mean time a page read took, in microseconds */
+    public double getAverageReadMicros();
+
+    /** @return the mean time a page write took, in microseconds */
+    public double getAverageWriteMicros();
+
+    /** @return pages evicted to make room for others */
+    public long getEvictions();
+
+    /** @return times a page was to be evicted but every page was dirty or in use */
+    public long getEvictionFailures();
+
+    /** @return the maximum number of pages in the pool */
+    public int getNumPages();
+
+    /** Resizes the pool while it is in use, see {@link BufferPool#resize}. */
+    public void setNumPages(int pages);
+
+    /** @return the number of pages in the pool */
+    public int getCachedPages();
+
+    /** @return the number of pages in the pool that differ from disk */
+    public int getDirtyPages();
+
+    /** @return hits per table name */
+    public Map<String, Long> getTableHits();
+
+    /** @return misses per table name */
+    public Map<String, Long> getTableMisses();
+
+    /** @return dirty pages in the pool per table name */
+    public Map<String, Integer> getTableDirtyPages();
+
+    /** Sets all counters back to zero. */
+    public void reset();
+}
@@ -0,0 +1,53 @@
+package minibase;
+
+/**
+ * BufferRing is a small private set of buffer pool frames through which a
+ * large sequential scan reads its pages. Once the ring is full, each new
+ * page takes the frame of the page read longest ago, so the scan never
+ * occupies more than the ring's size of the pool and does not push out
+ * pages other transactions use. A page in a ring frame that is requested
+ * without the ring moves into the main pool.
+ * <p>
+ * A ring belongs to one scan and must only be used by its thread.
+ *
+ * @see BufferPool#newScanRing
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+    private final PageId[] slots;
+    private int next = 0;
+
+    BufferRing(int size) {
+        slots = new PageId[size];
+    }
+
+    /**
+     * @return the number of frames in the ring
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Puts pid into the next slot.
+     *
+     * @return the page that slot held, whose frame may now be reused, or
+     *   null if the ring was not full yet
+     */
+    PageId add(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+
+    /**
+     * Returns the pages in the ring and empties it.
+     */
+    PageId[] clear() {
+        PageId[] pages = slots.clone();
+        java.util.Arrays.fill(slots, null);
+        next = 0;
+        return pages;
+    }
+}
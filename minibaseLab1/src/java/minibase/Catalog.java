@@ -122,9 +122,16 @@ public class Catalog {
         return fileNameMap.get(id);
     }
     
+    /** Close the files of every table in the catalog */
+    public void close() {
+        for (DbFile file : fileMap.values())
+            file.close();
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // TODO: some code goes here
+        close();
         NameToIdMap.clear();
         fileNameMap.clear();
         fileIdMap.clear();
@@ -134,6 +141,11 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk], ...) [mmap|slotted|columnar]</code>;
+     * tables annotated with <code>mmap</code> are read through memory mappings
+     * (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}), and tables
+     * annotated with <code>slotted</code> or <code>columnar</code> are stored
+     * as a {@link SlottedFile} or a {@link ColumnarFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -147,6 +159,13 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String annotation = line.substring(line.indexOf(")") + 1).replace(";", "").trim();
+                annotation = annotation.toLowerCase();
+                if (!annotation.equals("") && !annotation.equals("mmap") && !annotation.equals("slotted")
+                        && !annotation.equals("columnar")) {
+                    System.out.println("Unknown table annotation " + annotation);
+                    System.exit(0);
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -174,7 +193,14 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (annotation.equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t);
+                else if (annotation.equals("columnar"))
+                    tabHf = new ColumnarFile(dataFile, t);
+                else
+                    tabHf = new HeapFile(dataFile, t, annotation.equals("mmap"));
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,86 @@
+package minibase;
+
+import java.util.*;
+
+/**
+ * The CLOCK approximation of LRU. Pages sit in a ring of frames, each with
+ * a reference bit that is set when the page is used. To find a victim the
+ * clock hand sweeps the ring, clearing set bits, and stops at the first
+ * page whose bit is already clear, i.e. one not used since the hand last
+ * passed it.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private final ArrayList<PageId> frames = new ArrayList<PageId>();
+    private final BitSet referenced = new BitSet();
+    private final HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    public void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid))
+            return;
+        Integer f = freeFrames.poll();
+        if (f == null) {
+            f = frames.size();
+            frames.add(pid);
+        } else {
+            frames.set(f, pid);
+        }
+        frameOf.put(pid, f);
+        referenced.set(f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f != null)
+            referenced.set(f);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f == null)
+            return;
+        frames.set(f, null);
+        referenced.clear(f);
+        freeFrames.add(f);
+    }
+
+    /**
+     * Sweeps the hand around the ring at most twice, so every page is
+     * offered at least once even if all reference bits were set.
+     */
+    public Iterator<PageId> victims() {
+        return new Iterator<PageId>() {
+            private int steps = 0;
+            private PageId next = null;
+
+            public boolean hasNext() {
+                int n = frames.size();
+                while (next == null && steps < 2 * n) {
+                    int f = hand;
+                    hand = (hand + 1) % n;
+                    steps++;
+                    if (frames.get(f) == null)
+                        continue;
+                    if (referenced.get(f))
+                        referenced.clear(f);
+                    else
+                        next = frames.get(f);
+                }
+                return next != null;
+            }
+
+            public PageId next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                PageId pid = next;
+                next = null;
+                return pid;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
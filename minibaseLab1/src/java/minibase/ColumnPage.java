@@ -0,0 +1,106 @@
+package minibase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of ColumnPage stores one page of a ColumnarFile: either the
+ * row bitmap of a segment or a run of values of one column. The page itself
+ * is just bytes; ColumnarFile knows how they are laid out.
+ *
+ * @see ColumnarFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    private final HeapPageId pid;
+    private boolean mark_isDirty;
+    private TransactionId mark_dirtyTid;
+
+    // the live page image; shared with oldData until the first change
+    private byte[] data;
+    private byte[] oldData;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page keeps a reference to data (which must not be modified afterwards)
+     * and copies it only when it is first changed.
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length != BufferPool.PAGE_SIZE)
+            throw new IOException("page must be " + BufferPool.PAGE_SIZE + " bytes");
+        this.pid = id;
+        this.data = data;
+        this.oldData = data;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns a buffer over the contents of this page for reading. It must
+     * not be written to; use {@link #getWritableBuffer} for that.
+     */
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Returns a buffer over the contents of this page for changing them.
+     * The before image is copied out on the first change.
+     */
+    public ByteBuffer getWritableBuffer() {
+        if (data == oldData)
+            data = data.clone();
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Returns the contents of this page. The returned array is the page
+     * itself; callers must not modify it, and must copy it if they need it to
+     * outlive the next change to the page.
+     */
+    public byte[] getPageData() {
+        return data;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            return new ColumnPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = data;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        mark_isDirty = dirty;
+        mark_dirtyTid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (mark_isDirty)
+            return mark_dirtyTid;
+        else
+            return null;
+    }
+}
@@ -0,0 +1,444 @@
+package minibase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnarFile is an implementation of a DbFile that stores each column of a
+ * table in its own run of pages, so that a scan needing a few columns of a
+ * wide table reads only those columns' pages.
+ * <p>
+ * The file is a sequence of segments of ROWS_PER_SEGMENT rows each. A
+ * segment starts with a page whose first ROWS_PER_SEGMENT / 8 bytes are a
+ * bitmap of the rows in use (bit i % 8 of byte i / 8 for row i, as in the
+ * HeapPage header). It is followed, for each column in schema order, by the
+ * pages holding that column's values for the segment: a page holds
+ * PAGE_SIZE / type.getLen() values, encoded as in a HeapPage, and no value
+ * straddles two pages. A tuple is identified by the bitmap page of its
+ * segment and its row within the segment.
+ *
+ * @see ColumnPage
+ * @see SeqScan#SeqScan(TransactionId, int, String, int[])
+ */
+public class ColumnarFile implements DbFile {
+
+    /** Number of rows per segment; one page of ints per int column. */
+    public static final int ROWS_PER_SEGMENT = BufferPool.PAGE_SIZE / 4;
+
+    private final File file;
+    private final TupleDesc td;
+    private transient final PageChannel channel;
+    private transient FreeSpaceMap freeSpaceMap;
+
+    // values of column c per page, and the first page of column c within a
+    // segment (page 0 of a segment is its row bitmap)
+    private final int[] valuesPerPage;
+    private final int[] columnStart;
+    private final int pagesPerSegment;
+
+    /**
+     * Constructs a columnar file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+
+        int n = td.numFields();
+        valuesPerPage = new int[n];
+        columnStart = new int[n];
+        int page = 1;
+        for (int c = 0; c < n; c++) {
+            valuesPerPage[c] = BufferPool.PAGE_SIZE / td.getFieldType(c).getLen();
+            columnStart[c] = page;
+            page += (ROWS_PER_SEGMENT + valuesPerPage[c] - 1) / valuesPerPage[c];
+        }
+        pagesPerSegment = page;
+    }
+
+    /**
+     * Returns the File backing this ColumnarFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarFile, derived from the
+     * absolute file name as for HeapFile.
+     */
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this ColumnarFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages in one segment of this file.
+     */
+    public int getPagesPerSegment() {
+        return pagesPerSegment;
+    }
+
+    private int numSegments() {
+        return numPages() / pagesPerSegment;
+    }
+
+    private HeapPageId bitmapPageId(int seg) {
+        return new HeapPageId(getId(), seg * pagesPerSegment);
+    }
+
+    private HeapPageId valuePageId(int seg, int c, int row) {
+        return new HeapPageId(getId(), seg * pagesPerSegment + columnStart[c] + row / valuesPerPage[c]);
+    }
+
+    private int valueOffset(int c, int row) {
+        return (row % valuesPerPage[c]) * td.getFieldType(c).getLen();
+    }
+
+    private static boolean isRowUsed(ByteBuffer bitmap, int row) {
+        return (bitmap.get(row / 8) & (1 << (row % 8))) != 0;
+    }
+
+    private static void markRowUsed(ByteBuffer bitmap, int row, boolean value) {
+        int b = bitmap.get(row / 8);
+        b = value ? b | (1 << (row % 8)) : b & ~(1 << (row % 8));
+        bitmap.put(row / 8, (byte) b);
+    }
+
+    private static int findFreeRow(ByteBuffer bitmap) {
+        for (int i = 0; i < ROWS_PER_SEGMENT / 8; i++) {
+            int b = bitmap.get(i) & 0xff;
+            if (b != 0xff)
+                return i * 8 + Integer.numberOfTrailingZeros(~b);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the free-space map of this file, by segment rather than by
+     * page, loading it from its side file (the data file name plus ".fsm")
+     * on first use. If the side file is missing or unreadable the map is
+     * rebuilt from the row bitmaps on disk.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpaceMap != null)
+            return freeSpaceMap;
+
+        File side = new File(file.getPath() + ".fsm");
+        int ns = numSegments();
+        FreeSpaceMap fsm = FreeSpaceMap.load(side);
+        if (fsm == null || fsm.numPages() > ns) {
+            fsm = new FreeSpaceMap(side);
+            try {
+                ByteBuffer bitmap = ByteBuffer.allocate(ROWS_PER_SEGMENT / 8);
+                for (int s = 0; s < ns; s++) {
+                    bitmap.clear();
+                    channel.read(bitmap, (long) s * pagesPerSegment * BufferPool.PAGE_SIZE);
+                    fsm.setFree(s, findFreeRow(bitmap) >= 0);
+                }
+            } catch (IOException e) {
+                // fall back to treating every segment as a candidate
+                e.printStackTrace();
+                for (int s = 0; s < ns; s++)
+                    fsm.setFree(s, true);
+            }
+        }
+        for (int s = fsm.numPages(); s < ns; s++)
+            fsm.setFree(s, true);
+        freeSpaceMap = fsm;
+        return fsm;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        if (freeSpaceMap != null) {
+            try {
+                freeSpaceMap.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        channel.close();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        long position = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+        try {
+            if (position < 0)
+                throw new IllegalArgumentException("the page doesn't exist");
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            // nothing to read past the end of the file
+            if (channel.read(buf, position) == 0)
+                throw new IllegalArgumentException("the page doesn't exist");
+            return new ColumnPage((HeapPageId) pid, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long position = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
+        channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.PAGE_SIZE), position);
+    }
+
+    private ColumnPage getPage(TransactionId tid, HeapPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null || !t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int ns = numSegments();
+        int seg = -1, row = -1;
+        ColumnPage bitmapPage = null;
+        for (int s = fsm.nextFreePage(0); s >= 0 && s < ns; s = fsm.nextFreePage(s + 1)) {
+            bitmapPage = getPage(tid, bitmapPageId(s), Permissions.READ_WRITE);
+            row = findFreeRow(bitmapPage.getBuffer());
+            if (row >= 0) {
+                seg = s;
+                break;
+            }
+            fsm.setFree(s, false);
+        }
+
+        if (seg < 0) {
+            // append an empty segment; its pages are filled through the
+            // buffer pool, so they are locked and logged like any other page
+            synchronized (this) {
+                seg = numSegments();
+                ByteBuffer zeros = ByteBuffer.allocate(pagesPerSegment * BufferPool.PAGE_SIZE);
+                channel.write(zeros, (long) seg * pagesPerSegment * BufferPool.PAGE_SIZE);
+            }
+            bitmapPage = getPage(tid, bitmapPageId(seg), Permissions.READ_WRITE);
+            row = 0;
+        }
+
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        ByteBuffer bitmap = bitmapPage.getWritableBuffer();
+        markRowUsed(bitmap, row, true);
+        pageList.add(bitmapPage);
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnPage page = getPage(tid, valuePageId(seg, c, row), Permissions.READ_WRITE);
+            t.getField(c).serialize(page.getWritableBuffer(), valueOffset(c, row));
+            pageList.add(page);
+        }
+        fsm.setFree(seg, findFreeRow(bitmap) >= 0);
+        t.setRecordId(new RecordId(bitmapPage.getId(), row));
+        return pageList;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().pageNumber() % pagesPerSegment != 0)
+            throw new DbException("tuple is not in this file");
+        int row = rid.tupleno();
+        ColumnPage bitmapPage = getPage(tid, (HeapPageId) rid.getPageId(), Permissions.READ_WRITE);
+        if (row < 0 || row >= ROWS_PER_SEGMENT || !isRowUsed(bitmapPage.getBuffer(), row))
+            throw new DbException("tuple slot is already empty");
+        markRowUsed(bitmapPage.getWritableBuffer(), row, false);
+        getFreeSpaceMap().setFree(rid.getPageId().pageNumber() / pagesPerSegment, true);
+        return bitmapPage;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads only the
+     * pages of the given columns. The other fields of the returned tuples
+     * are null.
+     *
+     * @param columns indexes of the columns to read, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns == null) {
+            columns = new int[td.numFields()];
+            for (int c = 0; c < columns.length; c++)
+                columns[c] = c;
+        }
+        return new ColumnarFileIterator(tid, columns);
+    }
+
+    /**
+     * Iterates over the rows of each segment in turn, fetching a column page
+     * only when the row being decoded moves onto it.
+     */
+    private class ColumnarFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final ColumnPage[] pages;
+
+        private int numSegments;
+        private int seg = -1;
+        private int row = ROWS_PER_SEGMENT;
+        private HeapPageId bitmapPid;
+        private ByteBuffer bitmap;
+        private Tuple next;
+        private boolean open;
+
+        public ColumnarFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+            this.pages = new ColumnPage[columns.length];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            numSegments = numSegments();
+            seg = -1;
+            row = ROWS_PER_SEGMENT;
+            next = null;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            while (next == null) {
+                if (++row >= ROWS_PER_SEGMENT) {
+                    if (seg + 1 >= numSegments)
+                        return false;
+                    seg++;
+                    row = 0;
+                    bitmapPid = bitmapPageId(seg);
+                    // snapshot the bitmap so rows deleted meanwhile don't
+                    // shift what this segment returns
+                    byte[] bits = new byte[ROWS_PER_SEGMENT / 8];
+                    getPage(tid, bitmapPid, Permissions.READ_ONLY).getBuffer().get(bits);
+                    bitmap = ByteBuffer.wrap(bits);
+                    Arrays.fill(pages, null);
+                }
+                if (isRowUsed(bitmap, row))
+                    next = readRow();
+            }
+            return true;
+        }
+
+        private Tuple readRow() throws DbException, TransactionAbortedException {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < columns.length; i++) {
+                int c = columns[i];
+                HeapPageId pid = valuePageId(seg, c, row);
+                if (pages[i] == null || !pages[i].getId().equals(pid))
+                    pages[i] = getPage(tid, pid, Permissions.READ_ONLY);
+                t.setField(c, td.getFieldType(c).parse(pages[i].getBuffer(), valueOffset(c, row)));
+            }
+            t.setRecordId(new RecordId(bitmapPid, row));
+            return t;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+            next = null;
+            bitmap = null;
+            Arrays.fill(pages, null);
+        }
+    }
+
+    /**
+     * Writes the tuples of a heap file laid out as described in the
+     * HeapPage constructor into a new columnar file, replacing out. The heap
+     * file is read sequentially and each segment is written with a single
+     * call, without going through the buffer pool.
+     *
+     * @param heapFile the .dat file to convert
+     * @param td the schema of heapFile
+     * @param out the columnar file to create
+     * @return a ColumnarFile over out
+     */
+    public static ColumnarFile fromHeapFile(File heapFile, TupleDesc td, File out) throws IOException {
+        ColumnarFile cf = new ColumnarFile(out, td);
+        new File(out.getPath() + ".fsm").delete();
+
+        int numSlots = HeapPage.getNumTuples(td);
+        int headerSize = (numSlots + 7) / 8;
+        int tupleSize = td.getSize();
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        byte[] segment = new byte[cf.pagesPerSegment * BufferPool.PAGE_SIZE];
+        int row = 0;
+        long position = 0;
+
+        InputStream in = new BufferedInputStream(new FileInputStream(heapFile), 16 * BufferPool.PAGE_SIZE);
+        try {
+            cf.channel.getChannel().truncate(0);
+            while (readFully(in, page)) {
+                for (int slot = 0; slot < numSlots; slot++) {
+                    if ((page[slot / 8] & (1 << (slot % 8))) == 0)
+                        continue;
+                    int src = headerSize + slot * tupleSize;
+                    segment[row / 8] |= (byte) (1 << (row % 8));
+                    for (int c = 0; c < td.numFields(); c++) {
+                        int len = td.getFieldType(c).getLen();
+                        int dst = (cf.columnStart[c] + row / cf.valuesPerPage[c]) * BufferPool.PAGE_SIZE
+                                + cf.valueOffset(c, row);
+                        System.arraycopy(page, src + td.getFieldOffset(c), segment, dst, len);
+                    }
+                    if (++row == ROWS_PER_SEGMENT) {
+                        cf.channel.write(ByteBuffer.wrap(segment), position);
+                        position += segment.length;
+                        Arrays.fill(segment, (byte) 0);
+                        row = 0;
+                    }
+                }
+            }
+            if (row > 0)
+                cf.channel.write(ByteBuffer.wrap(segment), position);
+        } finally {
+            in.close();
+            cf.channel.close();
+        }
+        return cf;
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            if (n < 0)
+                return false;
+            off += n;
+        }
+        return true;
+    }
+}
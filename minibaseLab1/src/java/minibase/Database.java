@@ -16,11 +16,22 @@ public class Database {
     private BufferPool _bufferpool; 
 
     private final static String LOGFILENAME = "log";
+
+    // system properties that size the buffer pool and put its pages off
+    // the Java heap, e.g. -Dminibase.BufferPool.pages=1000000
+    // -Dminibase.BufferPool.offHeap=true
+    private final static String POOL_PAGES_PROPERTY = "minibase.BufferPool.pages";
+    private final static String POOL_OFF_HEAP_PROPERTY = "minibase.BufferPool.offHeap";
     private LogFile _logfile;
 
     private Database() {
     	_catalog = new Catalog();
-    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	int pages = Integer.getInteger(POOL_PAGES_PROPERTY, BufferPool.DEFAULT_PAGES);
+    	if (Boolean.getBoolean(POOL_OFF_HEAP_PROPERTY))
+    	    _bufferpool = new BufferPool(pages, new LruKPolicy(2, pages), true);
+    	else
+    	    _bufferpool = new BufferPool(pages);
+    	BufferPoolMetrics.register(_bufferpool.getMetrics());
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -51,11 +62,32 @@ public class Database {
     */
     public static BufferPool resetBufferPool(int pages) {
         _instance._bufferpool = new BufferPool(pages);
+        BufferPoolMetrics.register(_instance._bufferpool.getMetrics());
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool that evicts pages as policy chooses and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        BufferPoolMetrics.register(_instance._bufferpool.getMetrics());
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool that evicts pages as policy chooses and, if offHeap is
+        true, keeps them off the Java heap, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy, boolean offHeap) {
+        _instance._bufferpool = new BufferPool(pages, policy, offHeap);
+        BufferPoolMetrics.register(_instance._bufferpool.getMetrics());
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.close();
     	_instance = new Database();
     }
 
@@ -28,6 +28,17 @@ public interface DbFile extends Serializable {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+
+    /**
+     * Release any open handles on the underlying storage. The file may still
+     * be used afterwards; it is reopened on the next read or write.
+     */
+    public void close();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
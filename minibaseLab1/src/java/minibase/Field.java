@@ -1,6 +1,7 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in minibase.
@@ -14,6 +15,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf, starting at the
+     * absolute position offset. Exactly getType().getLen() bytes are written
+     * and the buffer's position is left untouched.
+     * @param buf The buffer to write to.
+     * @param offset The index in buf of the first byte of the field.
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -0,0 +1,96 @@
+package minibase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * FrameArena is a set of page-sized frames outside the Java heap that
+ * an off-heap BufferPool reads its pages into. The frames are cut out of a
+ * few large direct buffers allocated when the arena is created, so the
+ * memory the pool takes is known up front and the garbage collector never
+ * has to trace or copy the cached pages.
+ * <p>
+ * The arena does not track who uses a frame; a frame handed back with
+ * {@link #free} may be given out again at once.
+ * <p>
+ * The arena can be resized. Growing allocates another direct buffer for
+ * the new frames. Shrinking drops frames as they are freed; their memory is
+ * released once every frame of their direct buffer has been dropped.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy, boolean)
+ */
+class FrameArena {
+    // a direct buffer is indexed by an int, so it can't exceed 2 GB
+    private static final int FRAMES_PER_CHUNK = Integer.MAX_VALUE / BufferPool.PAGE_SIZE;
+
+    // the number of frames the arena should have, and has: free or in use
+    private int size;
+    private int frames = 0;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * Allocates an arena of frames frames. Direct memory is limited by
+     * -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+     */
+    FrameArena(int frames) {
+        resize(frames);
+    }
+
+    /**
+     * @return the number of frames the arena is meant to have
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Changes the number of frames in the arena. New frames are allocated
+     * at once; frames beyond the new size are dropped when they are free.
+     */
+    synchronized void resize(int size) {
+        this.size = size;
+        while (frames < size) {
+            int n = Math.min(size - frames, FRAMES_PER_CHUNK);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * BufferPool.PAGE_SIZE);
+            for (int i = 0; i < n; i++) {
+                chunk.limit((i + 1) * BufferPool.PAGE_SIZE);
+                chunk.position(i * BufferPool.PAGE_SIZE);
+                free.add(chunk.slice());
+            }
+            frames += n;
+        }
+        while (frames > size && !free.isEmpty()) {
+            free.poll();
+            frames--;
+        }
+    }
+
+    /**
+     * @return the number of frames not in use
+     */
+    synchronized int available() {
+        return free.size();
+    }
+
+    /**
+     * Takes a frame, positioned at 0 with its limit at PAGE_SIZE.
+     *
+     * @return the frame, or null if all frames are in use
+     */
+    synchronized ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if (frame != null)
+            frame.clear();
+        return frame;
+    }
+
+    /**
+     * Gives back a frame taken with {@link #allocate}.
+     */
+    synchronized void free(ByteBuffer frame) {
+        if (frames > size)
+            frames--;
+        else
+            free.push(frame);
+    }
+}
@@ -0,0 +1,125 @@
+package minibase;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers, for every page of a HeapFile, whether that page
+ * had at least one empty slot the last time it was read from disk or
+ * changed. HeapFile.insertTuple uses it to go straight to a page with room
+ * instead of fetching every page of the file.
+ * <p>
+ * The map is a hint: a page marked free may turn out to be full (the caller
+ * then clears the bit and moves on), and a page marked full is corrected
+ * the next time it is read from disk. It is stored in a side file next to
+ * the table as an int page count followed by one bit per page.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+    private final File file;
+    private final BitSet free;
+    private int numPages;
+    private boolean dirty;
+
+    /**
+     * Creates an empty map, covering no pages, that is saved to file.
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        this.free = new BitSet();
+        this.numPages = 0;
+        this.dirty = true;
+    }
+
+    /**
+     * Reads a map previously written by {@link #save}.
+     *
+     * @return the map, or null if file does not exist or is malformed
+     */
+    public static FreeSpaceMap load(File file) {
+        if (!file.exists())
+            return null;
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int n = dis.readInt();
+                byte[] bits = new byte[(n + 7) / 8];
+                if (n < 0 || file.length() != 4 + bits.length)
+                    return null;
+                dis.readFully(bits);
+
+                FreeSpaceMap fsm = new FreeSpaceMap(file);
+                fsm.free.or(BitSet.valueOf(bits));
+                fsm.numPages = n;
+                fsm.dirty = false;
+                return fsm;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of pages this map has an entry for
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Records whether page pgNo has an empty slot, extending the map if
+     * pgNo is past its end.
+     */
+    public synchronized void setFree(int pgNo, boolean hasFree) {
+        if (pgNo >= numPages) {
+            numPages = pgNo + 1;
+            dirty = true;
+        }
+        if (free.get(pgNo) != hasFree) {
+            free.set(pgNo, hasFree);
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return true if page pgNo is believed to have an empty slot
+     */
+    public synchronized boolean isFree(int pgNo) {
+        return pgNo < numPages && free.get(pgNo);
+    }
+
+    /**
+     * @return the first page at or after pgNo believed to have an empty
+     *   slot, or -1 if there is none
+     */
+    public synchronized int nextFreePage(int pgNo) {
+        int next = free.nextSetBit(pgNo);
+        return next < numPages ? next : -1;
+    }
+
+    /**
+     * Writes the map to its side file if it changed since it was loaded or
+     * last saved.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty)
+            return;
+        byte[] bits = new byte[(numPages + 7) / 8];
+        byte[] set = free.toByteArray();
+        System.arraycopy(set, 0, bits, 0, Math.min(set.length, bits.length));
+
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(numPages);
+            dos.write(bits);
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
@@ -1,6 +1,9 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -14,8 +17,19 @@ import java.util.*;
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /**
+     * Size of one memory-mapped segment of a mapped HeapFile. Must be a
+     * multiple of BufferPool.PAGE_SIZE so that no page straddles two segments.
+     */
+    public static final int MAP_SEGMENT_SIZE = 16384 * BufferPool.PAGE_SIZE;
+
 	private File file;
 	private TupleDesc td;
+	private final boolean mapped;
+	private transient final PageChannel channel;
+	private transient volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private transient FreeSpaceMap freeSpaceMap;
+	private transient ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +40,35 @@ public class HeapFile implements DbFile {
      */
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            if true, pages are read through read-only memory mappings of
+     *            the file (MAP_SEGMENT_SIZE bytes each) instead of being
+     *            copied out with read calls; a page views the mapping until it
+     *            first changes. Writes still go through the file channel; the
+     *            OS keeps the mappings coherent with them.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         // TODO: some code goes here
         file = f;
         this.td = td;
+        this.mapped = mapped;
+        this.channel = new PageChannel(f);
+    }
+
+    /**
+     * @return true if pages of this file are read through memory mappings
+     */
+    public boolean isMapped() {
+        return mapped;
     }
 
     /**
@@ -65,26 +105,183 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns a read-only view of the page starting at position. The segment
+     * holding the page is mapped on first use, and mapped again whenever the
+     * file has grown past the end of the existing mapping.
+     *
+     * @return the page, or null if the file doesn't hold a whole page there
+     */
+    private ByteBuffer getMappedPage(long position) throws IOException {
+        int seg = (int) (position / MAP_SEGMENT_SIZE);
+        int offset = (int) (position % MAP_SEGMENT_SIZE);
+
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer m = seg < segs.length ? segs[seg] : null;
+        if (m == null || m.capacity() < offset + BufferPool.PAGE_SIZE)
+            m = mapSegment(seg, offset + BufferPool.PAGE_SIZE);
+        if (m == null)
+            return null;
+
+        ByteBuffer page = m.duplicate();
+        page.position(offset);
+        page.limit(offset + BufferPool.PAGE_SIZE);
+        return page.slice();
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int seg, int minLength) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (seg < segs.length && segs[seg] != null && segs[seg].capacity() >= minLength)
+            return segs[seg];
+
+        FileChannel ch = channel.getChannel(false);
+        long start = (long) seg * MAP_SEGMENT_SIZE;
+        long length = Math.min(MAP_SEGMENT_SIZE, ch.size() - start);
+        if (length < minLength)
+            return null;
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+        // publish a new array so readers never see a half-updated one
+        MappedByteBuffer[] newSegs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+        newSegs[seg] = m;
+        segments = newSegs;
+        return m;
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it from its side file
+     * (the data file name plus ".fsm") on first use. If the side file is
+     * missing or unreadable the map is rebuilt from the page headers on disk;
+     * pages appended since the side file was written are marked free.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpaceMap != null)
+            return freeSpaceMap;
+
+        File side = new File(file.getPath() + ".fsm");
+        int np = numPages();
+        FreeSpaceMap fsm = FreeSpaceMap.load(side);
+        if (fsm == null || fsm.numPages() > np) {
+            fsm = new FreeSpaceMap(side);
+            try {
+                rebuildFreeSpaceMap(fsm, np);
+            } catch (IOException e) {
+                // fall back to treating every page as a candidate
+                e.printStackTrace();
+                for (int i = 0; i < np; i++)
+                    fsm.setFree(i, true);
+            }
+        }
+        for (int i = fsm.numPages(); i < np; i++)
+            fsm.setFree(i, true);
+        freeSpaceMap = fsm;
+        return fsm;
+    }
+
+    /** Fill fsm from the slot headers of the first np pages on disk. */
+    private void rebuildFreeSpaceMap(FreeSpaceMap fsm, int np) throws IOException {
+        int numSlots = HeapPage.getNumTuples(td);
+        ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+        for (int i = 0; i < np; i++) {
+            header.clear();
+            channel.read(header, (long) i * BufferPool.PAGE_SIZE);
+            int used = 0;
+            for (int b = 0; b < header.capacity(); b++)
+                used += Integer.bitCount(header.get(b) & 0xff);
+            fsm.setFree(i, used < numSlots);
+        }
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its side file (the
+     * data file name plus ".zm") on first use, or starting with an empty map
+     * that learns the bounds of each page as filtered scans read it.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            File side = new File(file.getPath() + ".zm");
+            zoneMap = ZoneMap.load(side, file, td);
+            if (zoneMap == null)
+                zoneMap = new ZoneMap(side, file, td);
+        }
+        return zoneMap;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        try {
+            if (freeSpaceMap != null)
+                freeSpaceMap.save();
+            if (zoneMap != null)
+                zoneMap.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // both are loaded again from their side files on next use
+        freeSpaceMap = null;
+        zoneMap = null;
+        // mappings can't be unmapped explicitly; they go away once collected
+        segments = new MappedByteBuffer[0];
+        channel.close();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // TODO: some code goes here
 	// hint!! to read specific page at arbitrary offset you need random access to the file
-       byte[] buf = new byte[BufferPool.PAGE_SIZE];
-       HeapPage p = null;
-       RandomAccessFile f;
-       
-       long position = pid.pageNumber()*BufferPool.PAGE_SIZE;
-       if(position < 0 || position >= file.length()) 
-       		throw new IllegalArgumentException("the page doesn't exist");
-       
-       try{
-           f = new RandomAccessFile(file,"r");
-           f.seek(position);
-           f.read(buf);
-           f.close();
-           return new HeapPage((HeapPageId)pid, buf);
-       }catch(IOException e){}
-       
+       return readPage(pid, null);
+    }
+
+    /**
+     * Reads a page like {@link #readPage(PageId)}, but if frame is not null
+     * reads it into frame, a page-sized buffer pool frame, and returns a
+     * page that views the frame rather than a copy of it. An off-heap
+     * BufferPool reads pages through this method, not readPage(PageId).
+     *
+     * @see HeapPage#view
+     */
+    public HeapPage readPage(PageId pid, ByteBuffer frame) {
+       long position = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+       try {
+           if (position < 0)
+               throw new IllegalArgumentException("the page doesn't exist");
+
+           HeapPage page;
+           // a trailing partial page can't be mapped; read it instead
+           ByteBuffer mappedPage = mapped ? getMappedPage(position) : null;
+           if (mappedPage != null) {
+               if (frame == null) {
+                   page = new HeapPage((HeapPageId)pid, mappedPage);
+               } else {
+                   frame.clear();
+                   frame.put(mappedPage);
+                   page = HeapPage.view((HeapPageId)pid, frame);
+               }
+           } else if (frame == null) {
+               ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+               // nothing to read past the end of the file
+               if (channel.read(buf, position) == 0)
+                   throw new IllegalArgumentException("the page doesn't exist");
+               page = new HeapPage((HeapPageId)pid, buf.array());
+           } else {
+               frame.clear();
+               if (channel.read(frame, position) == 0)
+                   throw new IllegalArgumentException("the page doesn't exist");
+               // the frame held another page before
+               while (frame.hasRemaining())
+                   frame.put((byte) 0);
+               page = HeapPage.view((HeapPageId)pid, frame);
+           }
+
+           // the page on disk is authoritative; correct a stale hint
+           FreeSpaceMap fsm = freeSpaceMap;
+           if (fsm != null)
+               fsm.setFree(pid.pageNumber(), page.getNumEmptySlots() > 0);
+           return page;
+       } catch (IOException e) {
+           e.printStackTrace();
+       }
+
        return null;
     }
 
@@ -92,12 +289,33 @@ public class HeapFile implements DbFile {
     //lab3
     public void writePage(Page page) throws IOException {
         // TODO: some code goes here
-        RandomAccessFile f = new RandomAccessFile(this.file, "rw");
-        PageId pid = page.getId();
-        long position = pid.pageNumber()*BufferPool.PAGE_SIZE;
-        f.seek(position);
-        f.write(page.getPageData(),0,BufferPool.PAGE_SIZE);
-        f.close();
+        long position = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
+        channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.PAGE_SIZE), position);
+    }
+
+    /**
+     * Writes pages of this file, sorted by page number. Each run of
+     * adjacent pages goes to disk in one gathered write.
+     *
+     * @see #sync
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        for (int i = 0, j; i < pages.size(); i = j) {
+            int first = pages.get(i).getId().pageNumber();
+            for (j = i + 1; j < pages.size() && pages.get(j).getId().pageNumber() == first + j - i; j++)
+                ;
+            ByteBuffer[] run = new ByteBuffer[j - i];
+            for (int k = 0; k < run.length; k++)
+                run[k] = ByteBuffer.wrap(pages.get(i + k).getPageData(), 0, BufferPool.PAGE_SIZE);
+            channel.write(run, (long) first * BufferPool.PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Forces the pages written to this file out to disk.
+     */
+    public void sync() throws IOException {
+        channel.force();
     }
 
     /**
@@ -118,24 +336,37 @@ public class HeapFile implements DbFile {
         	throw new DbException("");
         ArrayList<Page> pageList = new ArrayList<Page>();
         HeapPage hpage; HeapPageId pid; int np = numPages();
+        FreeSpaceMap fsm = getFreeSpaceMap();
         
-        for(int i=0;i<np;i++){
+        // only visit pages the free-space map says have room
+        for(int i=fsm.nextFreePage(0); i>=0 && i<np; i=fsm.nextFreePage(i+1)){
         	pid = new HeapPageId(this.getId(), i);
-        	hpage = ((HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
+        	hpage = ((HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE));
         	
         	if(hpage.getNumEmptySlots() > 0){
         		hpage.insertTuple(t);
         		pageList.add(hpage);
         		break;
         	}
+        	fsm.setFree(i, false);
         }
         
-        if(pageList.isEmpty()){
-            pid = new HeapPageId(this.getId(), np);
-            hpage = new HeapPage(pid, HeapPage.createEmptyPageData());
-            hpage.insertTuple(t);
-            this.writePage(hpage);
-            pageList.add(hpage);
+        while(pageList.isEmpty()){
+            // extend the file with an empty page and fill it through the
+            // buffer pool, so it is locked and logged like any other page;
+            // concurrent inserts may fill it first, then extend it again
+            int pgNo;
+            synchronized (this) {
+                pgNo = numPages();
+                writePage(new HeapPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData()));
+                fsm.setFree(pgNo, true);
+            }
+            pid = new HeapPageId(this.getId(), pgNo);
+            hpage = ((HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE));
+            if(hpage.getNumEmptySlots() > 0){
+                hpage.insertTuple(t);
+                pageList.add(hpage);
+            }
         }
         return pageList;
     }
@@ -154,7 +385,16 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // TODO: some code goes here
-        return new HeapFileIterator(tid, getId(), numPages());
+        return new HeapFileIterator(tid, getId(), numPages(), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips pages
+     * which, according to the zone map, hold no tuple satisfying p. Tuples
+     * on the pages it does read are returned whether they satisfy p or not.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(tid, getId(), numPages(), p);
     }
 
     // TODO: make HeapFileIterator class, you can freely add new methods, variable
@@ -170,6 +410,12 @@ public class HeapFile implements DbFile {
     	private Iterator<Tuple> itr = null;
     	private TransactionId tid;
     	private int tableId, numPages;
+    	private Predicate predicate;
+    	// highest page number read ahead so far
+    	private int readAheadTo = -1;
+    	// the frames a scan of a large file reads through, and their pool
+    	private BufferRing ring = null;
+    	private BufferPool ringPool = null;
     
 	    /**
 	     * Constructor for iterator
@@ -177,12 +423,68 @@ public class HeapFile implements DbFile {
 	     * @param tid Transactional of requesting transaction
 	     * @param tableId of the HeapFile
 	     * @param numPages the number of pages in file
+	     * @param predicate pages the zone map rules out for it are skipped;
+	     *        may be null
 	     */
-	    public HeapFileIterator(TransactionId tid, int tableId, int numPages) {
+	    public HeapFileIterator(TransactionId tid, int tableId, int numPages, Predicate predicate) {
 	    	// hint: you can get tuple iterator from HeapPage
 	    	 this.tid=tid;
 	    	 this.tableId = tableId;
 	    	 this.numPages = numPages;
+	    	 this.predicate = predicate;
+	    }
+
+	    /**
+	     * Once the scan has moved past its first page it is reading the file
+	     * sequentially, so ask the buffer pool to read the next
+	     * BufferPool.getReadAhead() pages in the background while this one is
+	     * processed. Pages the zone map rules out are not read ahead, and a
+	     * scan through a ring reads at most half the ring ahead.
+	     */
+	    private void readAhead() {
+	    	BufferPool pool = Database.getBufferPool();
+	    	int k = pool.getReadAhead();
+	    	if (ring != null)
+	    		k = Math.min(k, ring.size() / 2);
+	    	if (k == 0 || curPage < 1)
+	    		return;
+	    	int last = Math.min(curPage + k, numPages - 1);
+	    	ZoneMap zm = zoneMap();
+	    	for (int p = Math.max(readAheadTo + 1, curPage + 1); p <= last; p++) {
+	    		if (zm == null || zm.mightMatch(p, predicate))
+	    			pool.prefetchPage(new HeapPageId(tableId, p), ring);
+	    	}
+	    	readAheadTo = Math.max(readAheadTo, last);
+	    }
+
+	    /**
+	     * @return the zone map to skip pages by, or null if there is no
+	     *   predicate or the scan reads a snapshot, which may not see the
+	     *   pages as the bounds describe them yet
+	     */
+	    private ZoneMap zoneMap() {
+	    	if (predicate == null || Database.getBufferPool().isSnapshot(tid))
+	    		return null;
+	    	return getZoneMap();
+	    }
+
+	    /**
+	     * Returns the tuples of page pgNo, or null if the zone map shows that
+	     * none of them can satisfy the predicate. A filtered scan that sees a
+	     * clean page whose bounds aren't known exactly records them.
+	     */
+	    private Iterator<Tuple> pageIterator(int pgNo) throws DbException, TransactionAbortedException {
+	    	ZoneMap zm = zoneMap();
+	    	if (zm != null && !zm.mightMatch(pgNo, predicate))
+	    		return null;
+	    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, pgNo),
+	    			Permissions.READ_ONLY, ring);
+	    	if (zm != null && zm.needsUpdate(pgNo) && page.isDirty() == null) {
+	    		zm.update(pgNo, page.iterator());
+	    		if (!zm.mightMatch(pgNo, predicate))
+	    			return null;
+	    	}
+	    	return page.iterator();
 	    }
 
 	    /**
@@ -192,8 +494,13 @@ public class HeapFile implements DbFile {
 	     * @throws TransactionAbortedException
 	     */
 	    public void open() throws DbException, TransactionAbortedException {
-	    	curPage=0;
-	    	itr = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, curPage),Permissions.READ_ONLY)).iterator();
+	    	curPage=-1;
+	    	readAheadTo=-1;
+	    	itr = Collections.<Tuple>emptyList().iterator();
+	    	// a scan of a file larger than a quarter of the pool reads through
+	    	// a ring, so it doesn't push the pages others use out of the pool
+	    	ringPool = Database.getBufferPool();
+	    	ring = ringPool.newScanRing(numPages);
 	    }
 
 	    /**
@@ -204,17 +511,18 @@ public class HeapFile implements DbFile {
 	     * @throws TransactionAbortedException
 	     */
 	    public boolean hasNext() throws DbException, TransactionAbortedException {
-	    	if(itr != null){
-	    		if(itr.hasNext()) return true;
-	    		else if(curPage < numPages-1){
-	    			//System.out.println("current page num: "+curPage+", page num: "+numPages);
-	    			curPage++;
-	    			itr = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, curPage),Permissions.READ_ONLY)).iterator();
-	    			return hasNext();
-	    		}
+	    	if(itr == null)
+	    		return false;
+	    	while(!itr.hasNext()){
+	    		if(curPage >= numPages-1)
+	    			return false;
+	    		curPage++;
+	    		readAhead();
+	    		Iterator<Tuple> next = pageIterator(curPage);
+	    		if(next != null)
+	    			itr = next;
 	    	}
-	    	
-	    	return false;
+	    	return true;
 	    }
 
 	    /**
@@ -228,7 +536,7 @@ public class HeapFile implements DbFile {
 	    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
 	    	Tuple result = null;
 	    	
-	    	if(curPage != -1 && hasNext())
+	    	if(hasNext())
 	    		result = itr.next();
 	    	else
 	    		throw new NoSuchElementException();
@@ -253,6 +561,9 @@ public class HeapFile implements DbFile {
 	    public void close() {
 	    	itr=null;
 	    	curPage=-1;	
+	    	if (ring != null)
+	    		ringPool.releaseRing(ring);
+	    	ring = null;
 	    }
     }
 }
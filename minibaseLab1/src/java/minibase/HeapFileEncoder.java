@@ -1,7 +1,14 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -51,23 +58,369 @@ public class HeapFileEncoder {
       convert(tempInput, outFile, npagebytes, numFields);
   }
 
-      public static void convert(File inFile, File outFile, int npagebytes,
+      public static long convert(File inFile, File outFile, int npagebytes,
                  int numFields) throws IOException {
       Type[] ts = new Type[numFields];
       for (int i = 0; i < ts.length; i++) {
           ts[i] = Type.INT_TYPE;
       }
-      convert(inFile,outFile,npagebytes,numFields,ts);
+      return convert(inFile,outFile,npagebytes,numFields,ts);
       }
 
-  public static void convert(File inFile, File outFile, int npagebytes,
+  public static long convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr)
       throws IOException {
-      convert(inFile,outFile,npagebytes,numFields,typeAr,',');
+      return convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  // bytes of input handed to one parser task
+  private static final int CHUNK_BYTES = 4 << 20;
+  // bytes of output written to the data file at once
+  private static final int WRITE_BYTES = 1 << 20;
+
    /** Convert the specified input text file into a binary
     * page file. <br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
+    * ...<br>
+    * where each row represents a tuple and each field is an int or a string
+    * according to typeAr. Empty lines are skipped, carriage returns are
+    * ignored, and fields are trimmed; strings longer than Type.STRING_LEN
+    * are cut off.<br>
+    * <p>
+    * The input is read in large blocks that are split at line ends and
+    * parsed into records on all available processors. Pages are then
+    * filled with the records in input order and written out several at a
+    * time, so the output is the same as that of the original char-at-a-time
+    * encoder.
+    * <p>
+    * The format of the output file will be as specified in HeapPage and
+    * HeapFile.
+    *
+    * @see HeapPage
+    * @see HeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @return the number of tuples written
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static long convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    Charset cs = Charset.defaultCharset();
+    // lines can only be found by looking for '\n' bytes if every character
+    // below 0x80 is encoded as that single byte
+    if (fieldSeparator >= 0x80 || fieldSeparator == '\n' || fieldSeparator == '\r'
+            || !(cs.equals(StandardCharsets.UTF_8) || cs.equals(StandardCharsets.US_ASCII)
+                 || cs.equals(StandardCharsets.ISO_8859_1)))
+        return convertCharwise(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+
+    int nrecbytes = 0;
+    for (int i = 0; i < numFields ; i++) {
+        nrecbytes += typeAr[i].getLen();
+    }
+    int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+    if (nrecords == 0)
+        throw new IOException("tuples of " + nrecbytes + " bytes do not fit in a page of " + npagebytes);
+
+    int nthreads = Runtime.getRuntime().availableProcessors();
+    ExecutorService parsers = Executors.newFixedThreadPool(nthreads);
+    ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+    FileChannel in = new FileInputStream(inFile).getChannel();
+    try {
+        PageWriter out = new PageWriter(new FileOutputStream(outFile).getChannel(),
+                npagebytes, nrecbytes, nrecords);
+        try {
+            byte[] carry = new byte[0];
+            long offset = 0;
+            boolean eof = false;
+            while (!eof) {
+                byte[] block = Arrays.copyOf(carry, carry.length + CHUNK_BYTES);
+                ByteBuffer bb = ByteBuffer.wrap(block, carry.length, CHUNK_BYTES);
+                while (bb.hasRemaining() && !eof)
+                    eof = in.read(bb) < 0;
+                int n = bb.position();
+                // hand over complete lines only; the last one may lack its '\n'
+                int end = n;
+                if (!eof) {
+                    while (end > 0 && block[end - 1] != '\n')
+                        end--;
+                    if (end == 0) {
+                        carry = Arrays.copyOf(block, n);
+                        continue;
+                    }
+                }
+                pending.add(parsers.submit(new LineParser(block, end, offset,
+                        typeAr, numFields, nrecbytes, (byte) fieldSeparator, cs)));
+                offset += end;
+                carry = Arrays.copyOfRange(block, end, n);
+                // bound the input held in memory, but keep every parser busy
+                while (pending.size() > 2 * nthreads)
+                    out.add(result(pending.poll()));
+            }
+            while (!pending.isEmpty())
+                out.add(result(pending.poll()));
+            out.finish();
+        } finally {
+            out.close();
+        }
+        return out.getNumRecords();
+    } finally {
+        parsers.shutdownNow();
+        in.close();
+    }
+  }
+
+  private static ByteBuffer result(Future<ByteBuffer> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new RuntimeException(e.getCause());
+      }
+  }
+
+  /**
+   * Parses a block of whole lines into consecutive records in the format
+   * of a HeapPage, without the page header.
+   */
+  private static class LineParser implements Callable<ByteBuffer> {
+      private final byte[] buf;
+      private final int len;
+      private final long offset;
+      private final Type[] typeAr;
+      private final int numFields;
+      private final int nrecbytes;
+      private final byte sep;
+      private final Charset cs;
+
+      LineParser(byte[] buf, int len, long offset, Type[] typeAr, int numFields,
+              int nrecbytes, byte sep, Charset cs) {
+          this.buf = buf;
+          this.len = len;
+          this.offset = offset;
+          this.typeAr = typeAr;
+          this.numFields = numFields;
+          this.nrecbytes = nrecbytes;
+          this.sep = sep;
+          this.cs = cs;
+      }
+
+      private int indexOf(byte b, int from, int to) {
+          for (int i = from; i < to; i++) {
+              if (buf[i] == b)
+                  return i;
+          }
+          return -1;
+      }
+
+      /**
+       * @return the records, from position 0 up to the buffer's position
+       */
+      public ByteBuffer call() throws IOException {
+          int nlines = 0;
+          for (int i = 0; i < len; i++) {
+              if (buf[i] == '\n')
+                  nlines++;
+          }
+          if (len > 0 && buf[len - 1] != '\n')
+              nlines++;
+          ByteBuffer out = ByteBuffer.allocate(nlines * nrecbytes);
+          int pos = 0;
+          while (pos < len) {
+              int eol = indexOf((byte) '\n', pos, len);
+              if (eol < 0)
+                  eol = len;
+              parseLine(pos, eol, out);
+              pos = eol + 1;
+          }
+          return out;
+      }
+
+      private void parseLine(int start, int end, ByteBuffer out) throws IOException {
+          boolean empty = true;
+          for (int i = start; i < end && empty; i++)
+              empty = buf[i] == '\r';
+          if (empty)
+              return;
+          for (int f = 0; f < numFields; f++) {
+              int next = indexOf(sep, start, end);
+              if (f == numFields - 1 ? next >= 0 : next < 0)
+                  throw malformed(start, "expected " + numFields + " fields");
+              if (next < 0)
+                  next = end;
+              if (typeAr[f] == Type.INT_TYPE)
+                  parseInt(start, next, out);
+              else
+                  parseString(start, next, out);
+              start = next + 1;
+          }
+      }
+
+      private IOException malformed(int pos, String why) {
+          int eol = indexOf((byte) '\n', pos, len);
+          int lineStart = pos;
+          while (lineStart > 0 && buf[lineStart - 1] != '\n')
+              lineStart--;
+          return new IOException("malformed line at byte " + (offset + lineStart) + " (" + why + "): "
+                  + new String(buf, lineStart, (eol < 0 ? len : eol) - lineStart, cs));
+      }
+
+      /** The field as the char-at-a-time encoder saw it, carriage returns removed. */
+      private String decode(int start, int end) {
+          return new String(buf, start, end - start, cs).replace("\r", "");
+      }
+
+      private void parseInt(int start, int end, ByteBuffer out) throws IOException {
+          int i = start, e = end;
+          while (i < e && (buf[i] & 0xff) <= ' ')
+              i++;
+          while (e > i && (buf[e - 1] & 0xff) <= ' ')
+              e--;
+          boolean neg = i < e && buf[i] == '-';
+          if (i < e && (buf[i] == '-' || buf[i] == '+'))
+              i++;
+          // up to ten plain digits; anything else goes through Integer.parseInt
+          long v = 0;
+          boolean simple = i < e && e - i <= 10;
+          for (int j = i; j < e && simple; j++) {
+              int d = buf[j] - '0';
+              simple = d >= 0 && d <= 9;
+              v = v * 10 + d;
+          }
+          if (neg)
+              v = -v;
+          if (simple && v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+              out.putInt((int) v);
+              return;
+          }
+          try {
+              out.putInt(Integer.parseInt(decode(start, end).trim()));
+          } catch (NumberFormatException ex) {
+              throw malformed(start, "bad int " + decode(start, end).trim());
+          }
+      }
+
+      private void parseString(int start, int end, ByteBuffer out) {
+          int i = start, e = end;
+          while (i < e && (buf[i] & 0xff) <= ' ')
+              i++;
+          while (e > i && (buf[e - 1] & 0xff) <= ' ')
+              e--;
+          boolean ascii = true;
+          for (int j = i; j < e && ascii; j++)
+              ascii = buf[j] >= 0 && buf[j] != '\r';
+          int base = out.position();
+          if (ascii) {
+              int n = Math.min(e - i, Type.STRING_LEN);
+              out.putInt(n);
+              out.put(buf, i, n);
+          } else {
+              // like DataOutputStream.writeBytes: the low byte of each char
+              String s = decode(start, end).trim();
+              int n = Math.min(s.length(), Type.STRING_LEN);
+              out.putInt(n);
+              for (int j = 0; j < n; j++)
+                  out.put((byte) s.charAt(j));
+          }
+          // the rest of the field is already zero
+          out.position(base + Type.STRING_TYPE.getLen());
+      }
+  }
+
+  /**
+   * Packs records into pages in the order they are added and writes the
+   * pages out in large blocks.
+   */
+  private static class PageWriter {
+      private final FileChannel channel;
+      private final int npagebytes;
+      private final int nrecbytes;
+      private final int nrecords;
+      private final int nheaderbytes;
+      private final ByteBuffer buf;
+      private final byte[] data;
+
+      // pages complete in buf, and records on the page after them
+      private int npagesInBuf = 0;
+      private int recordcount = 0;
+      private int npages = 0;
+      private long nrows = 0;
+
+      PageWriter(FileChannel channel, int npagebytes, int nrecbytes, int nrecords) {
+          this.channel = channel;
+          this.npagebytes = npagebytes;
+          this.nrecbytes = nrecbytes;
+          this.nrecords = nrecords;
+          this.nheaderbytes = (nrecords + 7) / 8;
+          this.data = new byte[Math.max(1, WRITE_BYTES / npagebytes) * npagebytes];
+          this.buf = ByteBuffer.wrap(data);
+      }
+
+      void add(ByteBuffer records) throws IOException {
+          int n = records.position() / nrecbytes;
+          int r = 0;
+          while (r < n) {
+              int k = Math.min(n - r, nrecords - recordcount);
+              System.arraycopy(records.array(), r * nrecbytes, data,
+                      npagesInBuf * npagebytes + nheaderbytes + recordcount * nrecbytes, k * nrecbytes);
+              recordcount += k;
+              r += k;
+              nrows += k;
+              if (recordcount == nrecords)
+                  endPage();
+          }
+      }
+
+      /** Sets the header bits of the records on the current page. */
+      private void endPage() throws IOException {
+          int header = npagesInBuf * npagebytes;
+          Arrays.fill(data, header, header + recordcount / 8, (byte) 0xff);
+          if (recordcount % 8 > 0)
+              data[header + recordcount / 8] = (byte) ((1 << (recordcount % 8)) - 1);
+          recordcount = 0;
+          npages++;
+          if (++npagesInBuf * npagebytes == data.length)
+              flush();
+      }
+
+      private void flush() throws IOException {
+          buf.clear();
+          buf.limit(npagesInBuf * npagebytes);
+          while (buf.hasRemaining())
+              channel.write(buf);
+          Arrays.fill(data, 0, npagesInBuf * npagebytes, (byte) 0);
+          npagesInBuf = 0;
+      }
+
+      /** Writes the last page; an empty file still gets one empty page. */
+      void finish() throws IOException {
+          if (recordcount > 0 || npages == 0)
+              endPage();
+          flush();
+      }
+
+      long getNumRecords() {
+          return nrows;
+      }
+
+      void close() throws IOException {
+          channel.close();
+      }
+  }
+
+   /** Convert the specified input text file into a binary
+    * page file, reading it one char at a time. This is the original
+    * encoder; {@link #convert(File, File, int, int, Type[], char)} produces
+    * the same output and falls back to it for inputs it cannot split into
+    * lines on byte boundaries. <br>
     * Assume format of the input file is (note that only integer fields are
     * supported):<br>
     * int,...,int\n<br>
@@ -84,10 +437,11 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @return the number of tuples written
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
     */
-  public static void convert(File inFile, File outFile, int npagebytes,
+  static long convertCharwise(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
@@ -114,6 +468,7 @@ public class HeapFileEncoder {
     int recordcount = 0;
     int npages = 0;
     int fieldNo = 0;
+    long nrows = 0;
 
     ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
     DataOutputStream headerStream = new DataOutputStream(headerBAOS);
@@ -133,6 +488,7 @@ public class HeapFileEncoder {
             if (first)
                 continue;
             recordcount++;
+            nrows++;
             first = true;
         } else
             first = false;
@@ -222,5 +578,6 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    return nrows;
   }
 }
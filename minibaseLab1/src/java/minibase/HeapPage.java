@@ -3,6 +3,9 @@ package minibase;
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,13 +20,29 @@ public class HeapPage implements Page {
     HeapPageId pid;
     TupleDesc td;
     byte header[];
-    Tuple tuples[];
+    // the tuples decoded so far, allocated on first use, see getTuple
+    private volatile AtomicReferenceArray<Tuple> tuples;
     int numSlots;
     private boolean mark_isDirty;
     private TransactionId mark_dirtyTid;
     
+    // the before image, or null if it is data
     byte[] oldData;
 
+    // the page image this page was built from. It is never written to, so
+    // tuples decoded from it lazily stay valid after the page changes. For
+    // a page viewing a buffer pool frame it is dropped before the frame is
+    // reused, and read again when next needed, or copied to the heap if the
+    // page has changed since, see detach.
+    private volatile ByteBuffer data;
+    // true once a tuple has been inserted or deleted, i.e. data is stale
+    private boolean modified;
+    // true while data views a memory mapping of the page's file, which
+    // changes when the page is written back
+    private boolean mapped;
+    // reused by getPageData once the page has been modified
+    private ByteBuffer encoded;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -36,32 +55,127 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is parsed here. The page keeps a reference to data
+     * (which must not be modified afterwards) and decodes a tuple when it is
+     * first reached, and each of its fields when it is first read.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), ByteBuffer.wrap(data));
+    }
+
+    private HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        for (int i = 0; i < header.length; i++)
+            header[i] = data.get(i);
+
+        // tuples are decoded on demand, see getTuple; the array of them is
+        // only allocated then, so a cached page nobody reads takes little heap
+
+        // data is never written to, so it doubles as the before image
+        oldData = null;
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding one page of data, laid out as
+     * described in {@link #HeapPage(HeapPageId, byte[])}, starting at index
+     * 0 of the buffer: a slice of a memory-mapped file. The page reads its
+     * tuples straight from the mapping and copies it only when it first
+     * changes, before it can be written back through the file, so tuples
+     * decoded later never see that write.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), readOnlyPage(data));
+        mapped = true;
+    }
+
+    private static ByteBuffer readOnlyPage(ByteBuffer data) {
+        ByteBuffer page = data.duplicate();
+        page.position(0);
+        page.limit(BufferPool.PAGE_SIZE);
+        return page.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Moves a page viewing a mapping of its file onto a copy on the heap,
+     * before it changes.
+     */
+    private void copyOnWrite() {
+        if (mapped) {
+            data = ByteBuffer.wrap(copyPage(data));
+            mapped = false;
         }
-        dis.close();
+    }
+
+    /**
+     * Creates a HeapPage that views frame, a buffer pool frame holding one
+     * page of data, instead of copying it. The frame must not be changed or
+     * reused until {@link #detach} has been called.
+     */
+    static HeapPage view(HeapPageId id, ByteBuffer frame) {
+        return new HeapPage(id, Database.getCatalog().getTupleDesc(id.getTableId()), frame);
+    }
 
-        setBeforeImage();
+    /**
+     * Lets go of the frame the page views, so the frame can be reused while
+     * tuples of the page are still being read. An unchanged page is the page
+     * on disk, so its image is only read again if it is needed; a changed
+     * page's tuples may still come from the old image, which is copied to
+     * the heap.
+     */
+    void detach() {
+        ByteBuffer frame = data;
+        if (frame == null || frame.hasArray())
+            return;
+        data = modified ? ByteBuffer.wrap(copyPage(frame)) : null;
+    }
+
+    /**
+     * @return the page image, read again from the page's file if the frame
+     *  it was in has been let go of
+     */
+    private ByteBuffer data() {
+        ByteBuffer d = data;
+        return d != null ? d : reread();
+    }
+
+    private synchronized ByteBuffer reread() {
+        if (data == null) {
+            HeapPage fresh = (HeapPage) Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            if (fresh == null)
+                throw new IllegalStateException("can't read page " + pid + " again");
+            mapped = fresh.mapped;
+            data = fresh.data;
+        }
+        return data;
+    }
+
+    /**
+     * Returns true if buf, read from data before reading bytes out of it,
+     * has been detached since, so the bytes may come from a reused frame and
+     * must be read again.
+     */
+    private boolean detachedFrom(ByteBuffer buf) {
+        // the bytes must be read before data is checked again
+        VarHandle.loadLoadFence();
+        return buf != data;
+    }
+
+    private static byte[] copyPage(ByteBuffer data) {
+        byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(bytes);
+        return bytes;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -70,9 +184,15 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // TODO: some code goes here
 	// hint!! See the formula in the assignment description PPT.
+        return getNumTuples(td);
+    }
+
+    /** Retrieve the number of tuple slots on a page of a table with schema td.
+        @return the number of tuple slots on such a page
+    */
+    static int getNumTuples(TupleDesc td) {
 		int result = (int)Math.floor(BufferPool.PAGE_SIZE*8 / (td.getSize()*8+1));
         return result;
-
     }
 
     /**
@@ -90,8 +210,14 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
+        byte[] before = oldData;
+        if (before == null) {
+            // a frame may be reused; the before image must outlive it
+            ByteBuffer d = data();
+            before = d.hasArray() ? d.array() : copyPage(d);
+        }
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -101,7 +227,7 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = modified ? getPageData().clone() : null;
     }
 
     /**
@@ -113,37 +239,129 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the array of decoded tuples, allocating it on first use
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+    private AtomicReferenceArray<Tuple> tuples() {
+        AtomicReferenceArray<Tuple> ts = tuples;
+        if (ts == null) {
+            synchronized (this) {
+                if (tuples == null)
+                    tuples = new AtomicReferenceArray<Tuple>(numSlots);
+                ts = tuples;
+            }
+        }
+        return ts;
+    }
+
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty. Tuples are
+     * created on first access; their fields are decoded from the page image
+     * as they are read.
+     * <p>
+     * Transactions sharing the page read it at once. A tuple is published
+     * through an atomic array only once fully built; if two readers build
+     * the same tuple, both get the one published first.
+     */
+    private Tuple getTuple(int i) {
+        AtomicReferenceArray<Tuple> ts = tuples();
+        Tuple t = ts.get(i);
+        if (t == null && isSlotUsed(i)) {
+            t = new LazyTuple(this, header.length + i * td.getSize());
+            t.setRecordId(new RecordId(pid, i));
+            if (!ts.compareAndSet(i, null, t))
+                t = ts.get(i);
+        }
+        return t;
+    }
+
+    /**
+     * A tuple whose fields are decoded from the image of its page the first
+     * time they are read. The page image never changes, but if it views a
+     * frame it may be detached while a field is read, which is then read
+     * again from the page's new image.
+     * <p>
+     * Decoded fields are kept in an atomic array, so readers of a shared
+     * page see them fully built; two readers may decode the same field, and
+     * both keep the one stored first.
+     */
+    private static class LazyTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapPage page;
+        private final int offset;
+        private final AtomicReferenceArray<Field> decoded;
+        // set once a field is assigned from outside, see copyTo
+        private volatile boolean changed;
+
+        LazyTuple(HeapPage page, int offset) {
+            super(page.td);
+            this.page = page;
+            this.offset = offset;
+            this.decoded = new AtomicReferenceArray<Field>(page.td.numFields());
+        }
+
+        public void setField(int i, Field f) {
+            super.setField(i, f);
+            decoded.set(i, f);
+            changed = true;
+        }
+
+        /**
+         * Copies the tuple's bytes from the page image to out at dstOffset,
+         * unless a field has been assigned since the tuple was decoded.
+         * @return true if the bytes were copied
+         */
+        boolean copyTo(byte[] out, int dstOffset) {
+            if (changed)
+                return false;
+            ByteBuffer buf;
+            do {
+                buf = page.data();
+                ByteBuffer src = buf.duplicate();
+                src.position(offset);
+                src.get(out, dstOffset, getTupleDesc().getSize());
+            } while (page.detachedFrom(buf));
+            return true;
+        }
+
+        public Field getField(int i) {
+            Field f = decoded.get(i);
+            if (f == null) {
+                TupleDesc td = getTupleDesc();
+                int at = offset + td.getFieldOffset(i);
+                ByteBuffer buf = page.data();
                 try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+                    f = td.getFieldType(i).parse(buf, at);
+                } catch (RuntimeException e) {
+                    // garbage from a reused frame can fail to parse
+                    if (!page.detachedFrom(buf))
+                        throw e;
                 }
+                if (page.detachedFrom(buf))
+                    f = td.getFieldType(i).parse(page.data(), at);
+                if (!decoded.compareAndSet(i, null, f))
+                    f = decoded.get(i);
             }
-            return null;
+            return f;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        private List<Field> decodeAll() {
+            ArrayList<Field> all = new ArrayList<Field>();
+            for (int i = 0; i < getTupleDesc().numFields(); i++)
+                all.add(getField(i));
+            return all;
         }
 
-        return t;
+        public Iterator<Field> fields() {
+            return decodeAll().iterator();
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Field f : decodeAll())
+                sb.append(sb.length() == 0 ? "" : "\t").append(f);
+            return sb.append("\n").toString();
+        }
     }
 
     /**
@@ -154,68 +372,59 @@ public class HeapPage implements Page {
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
      *
+     * If no tuple has been inserted or deleted since the page was read, the
+     * array the page was built from is returned as is, or for a page viewing
+     * a buffer pool frame a copy of the frame. Otherwise the page is encoded
+     * into a page-sized buffer; the copy and the encoding reuse one buffer.
+     * Either way callers must not modify the array, and must copy it if they
+     * need it to outlive the next change to the page.
+     *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        ByteBuffer d = data();
+        if (!modified && d.hasArray())
+            return d.array();
+
+        if (encoded == null)
+            encoded = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        ByteBuffer buf = encoded;
+        byte[] out = buf.array();
+        if (!modified) {
+            // a page viewing a frame has no array to hand out
+            ByteBuffer src = d.duplicate();
+            src.position(0);
+            src.get(out);
+            return out;
+        }
+        int tupleSize = td.getSize();
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        System.arraycopy(header, 0, out, 0, header.length);
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        int offset = header.length;
+        for (int i=0; i<numSlots; i++, offset += tupleSize) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                Arrays.fill(out, offset, offset + tupleSize, (byte) 0);
                 continue;
             }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            // non-empty slot; tuples nobody changed are copied byte for byte
+            Tuple t = getTuple(i);
+            if (t instanceof LazyTuple && ((LazyTuple) t).copyTo(out, offset))
+                continue;
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(buf, offset + td.getFieldOffset(j));
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        Arrays.fill(out, offset, BufferPool.PAGE_SIZE, (byte) 0);
 
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -254,9 +463,15 @@ public class HeapPage implements Page {
     	if (!isSlotUsed(slotNum))
     		throw new DbException("");
     		
+    	Tuple old = getTuple(slotNum);
+    	copyOnWrite();
     	markSlotUsed(slotNum, false);
-    	tuples[slotNum] = null;
-        
+    	tuples().set(slotNum, null);
+    	modified = true;
+    	updateFreeSpaceMap();
+    	HeapFile f = getHeapFile();
+    	if (f != null)
+    		f.getZoneMap().delete(pid.pageNumber(), old);
     }
 
     /**
@@ -286,10 +501,35 @@ public class HeapPage implements Page {
     	if (!found)
     		throw new DbException("");
     	
+    	copyOnWrite();
     	RecordId rid = new RecordId(this.pid, freeSlotNum);
     	t.setRecordId(rid);
-    	tuples[freeSlotNum] = t;
+    	tuples().set(freeSlotNum, t);
     	markSlotUsed(freeSlotNum, true);
+    	modified = true;
+    	updateFreeSpaceMap();
+    	HeapFile f = getHeapFile();
+    	if (f != null)
+    		f.getZoneMap().insert(pid.pageNumber(), t);
+    }
+
+    /**
+     * Tell the HeapFile this page belongs to whether the page still has an
+     * empty slot, so that inserts can find it without a scan.
+     */
+    private void updateFreeSpaceMap() {
+        HeapFile f = getHeapFile();
+        if (f != null)
+            f.getFreeSpaceMap().setFree(pid.pageNumber(), getNumEmptySlots() > 0);
+    }
+
+    /**
+     * @return the HeapFile this page belongs to, or null if its table isn't
+     *   a HeapFile in the catalog
+     */
+    private HeapFile getHeapFile() {
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        return f instanceof HeapFile ? (HeapFile) f : null;
     }
 
     /**
@@ -370,14 +610,39 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
 	// hint!! List provide iterator method
-		List<Tuple> tupleList = new ArrayList<Tuple>();
-		int len = tuples.length;
-		for(int i=0;i<len;i++){
-			if(isSlotUsed(i))
-				tupleList.add(tuples[i]);
-		}
-		return tupleList.iterator();
+		return new SlotIterator();
     }
 
-}
+    /**
+     * Iterates over the slots that were in use when it was created, decoding
+     * each tuple only when it is reached. Tuples deleted in the meantime are
+     * skipped.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final byte[] used = header.clone();
+        private int slot = -1;
+        private Tuple next;
+
+        public boolean hasNext() {
+            while (next == null && slot + 1 < numSlots) {
+                slot++;
+                if ((used[slot / 8] & (1 << (slot % 8))) != 0)
+                    next = getTuple(slot);
+            }
+            return next != null;
+        }
 
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -40,6 +41,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putInt(offset, value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
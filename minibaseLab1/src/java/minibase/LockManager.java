@@ -1,166 +1,612 @@
 package minibase;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 
 /**
  * LockManager is class which manages locks for transactions.
  * It stores states of various locks on pages and provides atomic grant
  * and release of locks.
+ * <p>
+ * Locks are taken at two levels. Before locking a page shared or
+ * exclusive, a transaction takes an intention lock (IS or IX) on the
+ * page's table; a shared or exclusive lock on the whole table covers all of
+ * its pages, so no page locks are taken under it. Once a transaction holds
+ * more than {@link #getEscalationThreshold} page locks on one table, they are
+ * escalated: the transaction gets a table lock, S or X, if that can be
+ * granted right away, and its page locks on the table are dropped. A long
+ * scan thus holds a bounded number of locks.
+ * <p>
+ * The lock table is split into stripes by the hash of what is locked, each
+ * guarded by its own monitor, and each transaction keeps the list of locks
+ * it holds itself; granting or releasing a lock that nobody waits for only
+ * locks one stripe, so transactions working on different pages don't
+ * contend. A transaction takes the intention lock on a table once, not for
+ * every page.
+ * <p>
+ * A transaction that cannot have a lock right away joins the queue of the
+ * page or table and sleeps until it is granted. Queued requests are granted
+ * in the order they came, when locks are released; a new request does not
+ * overtake the queue even if it could be granted. A transaction that wants
+ * to upgrade a lock it holds goes to the front of the queue.
+ * <p>
+ * Deadlocks are detected when a request starts to wait. A waiting
+ * transaction waits for the transactions holding locks that conflict with
+ * its request and for those queued ahead of it; if that waits-for graph now
+ * has a cycle through the new request, the youngest transaction in the cycle
+ * is aborted: its request is taken out of the queue and its requestLock
+ * throws TransactionAbortedException. Requests start to wait one at a time,
+ * so every cycle is found by the request that closes it.
  * @author hrishi
  */
 public class LockManager {
-    
-    private HashMap<PageId, Set<TransactionId>> readLocks;
-    private HashMap<PageId, TransactionId> writeLock;
-    private HashMap<TransactionId, Set<PageId>> sharedPages;
-    private HashMap<TransactionId, Set<PageId>> exclusivePages;
+
+    /** Default number of page locks a transaction holds on one table
+    before they are escalated to a table lock. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** Default number of stripes the lock table is split into. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    // stands in for the null tid pages may be locked with
+    private static final TransactionId NO_TRANSACTION = new TransactionId();
+
+    /** Lock modes. Pages are locked S or X; tables in any mode. */
+    enum Mode {
+        IS, IX, S, X;
+
+        /**
+         * @return true if another transaction may hold other while one
+         *   holds this
+         */
+        boolean compatibleWith(Mode other) {
+            switch (this) {
+            case IS:
+                return other != X;
+            case IX:
+                return other == IS || other == IX;
+            case S:
+                return other == IS || other == S;
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * @return true if holding this allows everything other allows
+         */
+        boolean covers(Mode other) {
+            return this == other || this == X || other == IS;
+        }
+
+        /**
+         * @return the weakest mode that covers this and other
+         */
+        Mode join(Mode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            // IX and S
+            return X;
+        }
+    }
+
+    /** The holders of a page or table lock, and the requests waiting for it. */
+    private static class Lock {
+        final HashMap<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>();
+        // oldest first
+        final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+    }
+
+    /**
+     * A part of the lock table: the locks on the pages and tables that hash
+     * to it, by what they lock, a PageId or the Integer id of a table. A
+     * lock is dropped when nobody holds or waits for it. Guarded by its own
+     * monitor.
+     */
+    private static class Stripe {
+        final HashMap<Object, Lock> locks = new HashMap<Object, Lock>();
+    }
+
+    /**
+     * The locks one transaction holds, kept with the transaction so that
+     * releasing them all doesn't search the lock table. Only the
+     * transaction's own thread uses it, except to record a lock granted
+     * from a queue, so its monitor is rarely contended.
+     */
+    private static class Held {
+        final HashMap<Object, Mode> modes = new HashMap<Object, Mode>();
+        // how many pages of each table are locked
+        final HashMap<Integer, Integer> pages = new HashMap<Integer, Integer>();
+
+        synchronized Mode get(Object resource) {
+            return modes.get(resource);
+        }
+
+        synchronized void put(Object resource, Mode mode) {
+            if (modes.put(resource, mode) == null && resource instanceof PageId)
+                count(((PageId) resource).getTableId(), 1);
+        }
+
+        synchronized void remove(Object resource) {
+            if (modes.remove(resource) != null && resource instanceof PageId)
+                count(((PageId) resource).getTableId(), -1);
+        }
+
+        synchronized int pages(Integer table) {
+            Integer n = pages.get(table);
+            return n == null ? 0 : n;
+        }
+
+        private void count(Integer table, int delta) {
+            int n = pages(table) + delta;
+            if (n > 0)
+                pages.put(table, n);
+            else
+                pages.remove(table);
+        }
+
+        synchronized int size() {
+            return modes.size();
+        }
+
+        /**
+         * @return what is locked, or only the pages of table if that is not
+         *   null
+         */
+        synchronized List<Object> resources(Integer table) {
+            ArrayList<Object> found = new ArrayList<Object>();
+            for (Object resource : modes.keySet()) {
+                if (table == null || resource instanceof PageId
+                        && ((PageId) resource).getTableId() == table)
+                    found.add(resource);
+            }
+            return found;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<TransactionId, Held>();
+    // the request each waiting transaction made
+    private final ConcurrentHashMap<TransactionId, Request> blocked = new ConcurrentHashMap<TransactionId, Request>();
+    // held while a request starts to wait and looks for the cycles it closes
+    private final Object waits = new Object();
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    /**
+     * A request waiting in a queue. The thread that made it sleeps on the
+     * request, so granting a lock wakes only that thread.
+     */
+    private static class Request {
+        final TransactionId tid;
+        final Object resource;
+        final Mode mode;
+        private boolean granted = false;
+        private boolean aborted = false;
+
+        Request(TransactionId tid, Object resource, Mode mode) {
+            this.tid = tid;
+            this.resource = resource;
+            this.mode = mode;
+        }
+
+        synchronized void grant() {
+            granted = true;
+            notify();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notify();
+        }
+
+        /**
+         * @return true if the lock was granted, false if the request was
+         *   chosen as a deadlock victim
+         */
+        synchronized boolean await() throws InterruptedException {
+            while (!granted && !aborted)
+                wait();
+            return granted;
+        }
+    }
 
     public LockManager() {
-    	readLocks = new HashMap<PageId, Set<TransactionId>>();
-        writeLock = new HashMap<PageId, TransactionId>();
-        sharedPages = new HashMap<TransactionId, Set<PageId>>();
-        exclusivePages = new HashMap<TransactionId, Set<PageId>>();
-    }
-    
-    private void addLock(TransactionId tid, PageId pid, Permissions perm){
-    	if(perm.equals(Permissions.READ_ONLY)){
-    		if(!readLocks.containsKey(pid)) readLocks.put(pid, new HashSet<TransactionId>());
-    		readLocks.get(pid).add(tid);
-    		
-    		if(!sharedPages.containsKey(tid)) sharedPages.put(tid, new HashSet<PageId>());
-    		sharedPages.get(tid).add(pid);
-    	} else{
-    		writeLock.put(pid,tid);
-    		if(!exclusivePages.containsKey(tid)) exclusivePages.put(tid, new HashSet<PageId>());
-    		exclusivePages.get(tid).add(pid);
-    	}
-    }
-    
-    /**
-     * Checks if transaction has lock on a page
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of parts the lock table is split into,
+     *   rounded up to a power of two
+     */
+    public LockManager(int stripes) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, stripes) - 1);
+        this.stripes = new Stripe[1 << bits];
+        for (int i = 0; i < this.stripes.length; i++)
+            this.stripes[i] = new Stripe();
+        // the top bits of a multiplicative hash pick the stripe
+        this.stripeShift = 32 - bits;
+    }
+
+    /**
+     * Sets how many page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     */
+    public void setEscalationThreshold(int pages){
+    	escalationThreshold = pages;
+    }
+
+    public int getEscalationThreshold(){
+    	return escalationThreshold;
+    }
+
+    private Stripe stripe(Object resource){
+    	if(stripeShift == 32) return stripes[0];
+    	return stripes[(resource.hashCode() * 0x9E3779B9) >>> stripeShift];
+    }
+
+    private static TransactionId key(TransactionId tid){
+    	return tid == null ? NO_TRANSACTION : tid;
+    }
+
+    private Held heldBy(TransactionId tid){
+    	Held h = held.get(tid);
+    	if(h == null){
+    		Held fresh = new Held();
+    		h = held.putIfAbsent(tid, fresh);
+    		if(h == null) h = fresh;
+    	}
+    	return h;
+    }
+
+    private Mode heldMode(TransactionId tid, Object resource){
+    	Held h = held.get(tid);
+    	return h == null ? null : h.get(resource);
+    }
+
+    private int pageCount(TransactionId tid, Integer table){
+    	Held h = held.get(tid);
+    	return h == null ? 0 : h.pages(table);
+    }
+
+    /** Called holding the monitor of the resource's stripe. */
+    private void addLock(Stripe s, TransactionId tid, Object resource, Mode mode){
+    	Lock lock = s.locks.get(resource);
+    	if(lock == null){
+    		lock = new Lock();
+    		s.locks.put(resource, lock);
+    	}
+    	lock.holders.put(tid, mode);
+    	heldBy(tid).put(resource, mode);
+    }
+
+    private void removeLock(TransactionId tid, Object resource){
+    	Stripe s = stripe(resource);
+    	synchronized(s){
+    		Lock lock = s.locks.get(resource);
+    		if(lock == null || lock.holders.remove(tid) == null) return;
+    		grantWaiting(s, resource, lock);
+    	}
+    	Held h = held.get(tid);
+    	if(h != null) h.remove(resource);
+    }
+
+    /**
+     * Checks if transaction has lock on a page, its own or one on the
+     * whole table
      * @param tid Transaction Id
      * @param pid Page Id
      * @return boolean True if holds lock
      */
     public boolean holdsLock(TransactionId tid, PageId pid){
-        if(readLocks.containsKey(pid)){
-        	Set set = readLocks.get(pid);
-        	if(set.contains(tid)) return true;
-        }
-        
-        if(writeLock.containsKey(pid)){
-        	TransactionId t = writeLock.get(pid);
-        	if(t.equals(tid)) return true;
-        }
-        return false;
+        tid = key(tid);
+        if(heldMode(tid, pid) != null) return true;
+        Mode table = heldMode(tid, pid.getTableId());
+        return table == Mode.S || table == Mode.X;
     }
-    
-    private boolean grantLock(TransactionId tid, PageId pid, Permissions perm){
-    	if(perm.equals(Permissions.READ_ONLY)){
-    		if(writeLock.containsKey(pid) && !writeLock.get(pid).equals(tid)) return false;
-    		addLock(tid,pid,perm);
-    		return true;
+
+    /**
+     * @return true if the locks other transactions hold allow tid a lock in
+     *   mode
+     */
+    private static boolean compatible(Lock lock, TransactionId tid, Mode mode){
+    	if(lock == null) return true;
+    	for(Map.Entry<TransactionId, Mode> e : lock.holders.entrySet()){
+    		if(!e.getKey().equals(tid) && !e.getValue().compatibleWith(mode)) return false;
     	}
-    	
-    	if(!writeLock.containsKey(pid) && (!readLocks.containsKey(pid) || readLocks.get(pid).isEmpty())){
-    		addLock(tid,pid,perm);
-    		return true;
+    	return true;
+    }
+
+    /**
+     * Grants tid a lock on resource that covers mode, if that is possible
+     * right away. Called holding the monitor of the resource's stripe.
+     */
+    private boolean grantLock(Stripe s, TransactionId tid, Object resource, Mode mode){
+    	Lock lock = s.locks.get(resource);
+    	Mode current = lock == null ? null : lock.holders.get(tid);
+    	if(current != null && current.covers(mode)) return true;
+    	Mode wanted = current == null ? mode : current.join(mode);
+    	if(!compatible(lock, tid, wanted)) return false;
+    	// don't overtake the queue, unless upgrading
+    	if(current == null && lock != null && !lock.queue.isEmpty()) return false;
+    	addLock(s, tid, resource, wanted);
+    	return true;
+    }
+
+    /**
+     * @return the table lock a page lock in mode needs
+     */
+    private static Mode intention(Mode mode){
+    	return mode == Mode.S ? Mode.IS : Mode.IX;
+    }
+
+    private static Mode pageMode(Permissions perm){
+    	return perm.equals(Permissions.READ_ONLY) ? Mode.S : Mode.X;
+    }
+
+    /**
+     * Grants the lock only if that is possible right away. Page locks are
+     * not escalated.
+     *
+     * @return true if the lock was granted
+     */
+    public boolean tryLock(TransactionId tid, PageId pid, Permissions perm){
+    	tid = key(tid);
+    	Integer table = pid.getTableId();
+    	Mode mode = pageMode(perm);
+    	Stripe ts = stripe(table);
+    	boolean hadTable;
+    	synchronized(ts){
+    		hadTable = heldMode(tid, table) != null;
+    		if(!grantLock(ts, tid, table, intention(mode))) return false;
     	}
-    	
-    	if(readLocks.containsKey(pid) && readLocks.get(pid).contains(tid) && readLocks.get(pid).size()==1){
-    		addLock(tid, pid, perm);
-    		return true;
+    	if(heldMode(tid, table).covers(mode)) return true;
+    	Stripe ps = stripe(pid);
+    	synchronized(ps){
+    		if(grantLock(ps, tid, pid, mode)) return true;
     	}
-    	
-    	if(exclusivePages.containsKey(tid) && exclusivePages.get(tid).contains(pid)) return true;
-    	
+    	if(!hadTable) removeLock(tid, table);
     	return false;
     }
-    
+
     /**
-     * Grants lock to the Transaction.
+     * Grants lock to the Transaction, waiting in the queues of the table and
+     * the page until it can be granted.
      * @param tid TransactionId requesting lock.
      * @param pid PageId on which the lock is requested.
      * @param perm The type of permission.
+     * @throws TransactionAbortedException if tid is chosen as the victim of
+     *   a deadlock, or the thread is interrupted while waiting
      */
-    public void requestLock(TransactionId tid, PageId pid, 
+    public void requestLock(TransactionId tid, PageId pid,
             Permissions perm) throws TransactionAbortedException{
-    	int delay = 100, max_try = 200;
-    	
-    	if(sharedPages.containsKey(tid) || exclusivePages.containsKey(tid)){
-    		delay = 10; max_try = 400;
-    	}
-    	
-    	boolean isGranted = grantLock(tid,pid,perm);
-    	long start = System.currentTimeMillis();
-    	while(!isGranted){
-    		if(System.currentTimeMillis() - start > max_try){
-    			if(perm.equals(Permissions.READ_ONLY)) {
-    				try{
-    					Thread.sleep(delay);
-    				} catch(Exception e){}
-    				isGranted = grantLock(tid,pid,perm);
-    			}
-    			else{
-    				isGranted = grantLock(tid,pid,perm);
-    				start = System.currentTimeMillis();
-    			}
+    	tid = key(tid);
+    	Integer table = pid.getTableId();
+    	Mode mode = pageMode(perm);
+    	Mode tableMode = heldMode(tid, table);
+    	if(tableMode == null || !tableMode.covers(intention(mode))){
+    		acquire(tid, table, intention(mode));
+    		tableMode = heldMode(tid, table);
+    	}
+    	if(tableMode.covers(mode)) return;
+    	acquire(tid, pid, mode);
+    	if(pageCount(tid, table) > escalationThreshold) escalate(tid, table);
+    }
+
+    /**
+     * Replaces the page locks tid holds on table by a table lock, if that
+     * can be granted right away; otherwise tries again on the next page.
+     */
+    private void escalate(TransactionId tid, Integer table){
+    	Mode mode = heldMode(tid, table) == Mode.IX ? Mode.X : Mode.S;
+    	Stripe s = stripe(table);
+    	synchronized(s){
+    		if(!grantLock(s, tid, table, mode)) return;
+    	}
+    	for(Object resource : heldBy(tid).resources(table))
+    		removeLock(tid, resource);
+    }
+
+    /**
+     * Grants tid a lock on resource that covers mode, waiting in its queue
+     * until it can be granted.
+     */
+    private void acquire(TransactionId tid, Object resource, Mode mode) throws TransactionAbortedException{
+    	Stripe s = stripe(resource);
+    	synchronized(s){
+    		if(grantLock(s, tid, resource, mode)) return;
+    	}
+    	Request req;
+    	synchronized(waits){
+    		synchronized(s){
+    			if(grantLock(s, tid, resource, mode)) return;
+    			Lock lock = s.locks.get(resource);
+    			Mode current = lock.holders.get(tid);
+    			req = new Request(tid, resource, current == null ? mode : current.join(mode));
+    			// the holders an upgrade waits for may be queued behind it
+    			if(current != null) lock.queue.addFirst(req);
+    			else lock.queue.addLast(req);
+    			blocked.put(tid, req);
     		}
-    		
-    	}    	
+    		breakDeadlock(tid);
+    	}
+    	boolean granted = false;
+    	try{
+    		granted = req.await();
+    		if(!granted) throw new TransactionAbortedException();
+    	} catch(InterruptedException e){
+    		// the interrupt is answered by aborting; keeping the flag set would
+    		// also break the file channels the abort writes through
+    		throw new TransactionAbortedException();
+    	} finally{
+    		// unless it was granted meanwhile; then tid holds the lock
+    		// until it releases it
+    		if(!granted) dequeue(req);
+    	}
     }
-    
+
     /**
-     * Releases locks associated with given transaction and page.
+     * Takes a waiting request out of its queue and grants those behind it
+     * that can go now.
+     *
+     * @return false if the request was no longer queued
+     */
+    private boolean dequeue(Request req){
+    	blocked.remove(req.tid, req);
+    	Stripe s = stripe(req.resource);
+    	synchronized(s){
+    		Lock lock = s.locks.get(req.resource);
+    		if(lock == null || !lock.queue.remove(req)) return false;
+    		grantWaiting(s, req.resource, lock);
+    		return true;
+    	}
+    }
+
+    /**
+     * Grants queued requests for resource, oldest first, until one has to
+     * wait for a lock that is held. Drops the lock if it is no longer used.
+     * Called holding the monitor of the resource's stripe.
+     */
+    private void grantWaiting(Stripe s, Object resource, Lock lock){
+    	while(!lock.queue.isEmpty() && compatible(lock, lock.queue.peek().tid, lock.queue.peek().mode)){
+    		Request req = lock.queue.poll();
+    		blocked.remove(req.tid, req);
+    		addLock(s, req.tid, resource, req.mode);
+    		req.grant();
+    	}
+    	if(lock.queue.isEmpty() && lock.holders.isEmpty()) s.locks.remove(resource);
+    }
+
+    /**
+     * @return the transactions the waiting request of tid waits for: those
+     *   holding conflicting locks and those queued ahead of it
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid){
+    	Set<TransactionId> found = new HashSet<TransactionId>();
+    	Request req = blocked.get(tid);
+    	if(req == null) return found;
+    	Stripe s = stripe(req.resource);
+    	synchronized(s){
+    		Lock lock = s.locks.get(req.resource);
+    		if(lock == null || !lock.queue.contains(req)) return found;
+    		for(Map.Entry<TransactionId, Mode> e : lock.holders.entrySet()){
+    			if(!e.getValue().compatibleWith(req.mode)) found.add(e.getKey());
+    		}
+    		for(Request ahead : lock.queue){
+    			if(ahead == req) break;
+    			found.add(ahead.tid);
+    		}
+    	}
+    	found.remove(tid);
+    	return found;
+    }
+
+    /**
+     * Looks for a path in the waits-for graph from tid back to target.
+     *
+     * @return the transactions on the path, starting with tid, or null if
+     *   there is none
+     */
+    private List<TransactionId> pathTo(TransactionId tid, TransactionId target, Set<TransactionId> visited){
+    	if(!visited.add(tid)) return null;
+    	for(TransactionId next : waitsFor(tid)){
+    		List<TransactionId> path = next.equals(target) ? new ArrayList<TransactionId>()
+    				: pathTo(next, target, visited);
+    		if(path != null){
+    			path.add(0, tid);
+    			return path;
+    		}
+    	}
+    	return null;
+    }
+
+    /**
+     * Aborts the youngest transaction of each cycle through tid in the
+     * waits-for graph, until there is none or tid itself is aborted. A new
+     * request can only close cycles through its own transaction, so
+     * checking when a request starts waiting finds every deadlock. Called
+     * holding the waits monitor.
+     */
+    private void breakDeadlock(TransactionId tid){
+    	while(blocked.containsKey(tid)){
+    		List<TransactionId> cycle = pathTo(tid, tid, new HashSet<TransactionId>());
+    		if(cycle == null) return;
+    		TransactionId victim = tid;
+    		for(TransactionId t : cycle){
+    			if(t.getId() > victim.getId()) victim = t;
+    		}
+    		// a request granted meanwhile wasn't deadlocked after all
+    		Request req = blocked.get(victim);
+    		if(req != null && dequeue(req)) req.abort();
+    	}
+    }
+
+    /**
+     * Releases locks associated with given transaction and page. A lock on
+     * the whole table stays; an intention lock on it goes with the last
+     * page lock under it.
      * @param tid The TransactionId.
      * @param pid The PageId.
      */
-    public synchronized void releaseLock(TransactionId tid, PageId pid){
-    	if(readLocks.containsKey(pid))
-            readLocks.get(pid).remove(tid);
-        if(writeLock.containsKey(pid))
-        	writeLock.remove(pid);
-        if(sharedPages.containsKey(tid))
-            sharedPages.get(tid).remove(pid);
-        if(exclusivePages.containsKey(tid))
-            exclusivePages.get(tid).remove(pid);
+    public void releaseLock(TransactionId tid, PageId pid){
+    	tid = key(tid);
+    	removeLock(tid, pid);
+    	Integer table = pid.getTableId();
+    	Mode mode = heldMode(tid, table);
+    	if((mode == Mode.IS || mode == Mode.IX) && pageCount(tid, table) == 0)
+    		removeLock(tid, table);
     }
-    
+
     /**
      * Releases Lock related to a page
      * @param pid PageId
      */
-    public synchronized void removePage(PageId pid){
-    	readLocks.remove(pid);
-    	writeLock.remove(pid);
+    public void removePage(PageId pid){
+    	Stripe s = stripe(pid);
+    	List<TransactionId> holders;
+    	synchronized(s){
+    		Lock lock = s.locks.get(pid);
+    		if(lock == null) return;
+    		holders = new ArrayList<TransactionId>(lock.holders.keySet());
+    	}
+    	for(TransactionId tid : holders)
+    		removeLock(tid, pid);
     }
-    
+
     /**
-     * Releases all pages associated with given Transaction.
+     * Releases all pages associated with given Transaction, and its table
+     * locks.
      * @param tid The TransactionId.
      */
     public void releaseAllPages(TransactionId tid){
-    	if(sharedPages.containsKey(tid)){
-    		Set set = sharedPages.get(tid);
-    		Iterator itr = set.iterator();
-    		PageId pid = null;
-    		while(itr.hasNext()){
-    			pid = (PageId)itr.next();
-    			readLocks.get(pid).remove(tid);
+    	tid = key(tid);
+    	Held h = held.remove(tid);
+    	if(h == null) return;
+    	for(Object resource : h.resources(null)){
+    		Stripe s = stripe(resource);
+    		synchronized(s){
+    			Lock lock = s.locks.get(resource);
+    			if(lock != null && lock.holders.remove(tid) != null)
+    				grantWaiting(s, resource, lock);
     		}
-            sharedPages.remove(tid);
-        }
-        if(exclusivePages.containsKey(tid)){
-        	Set set = exclusivePages.get(tid);
-        	Iterator itr = set.iterator();
-        	PageId pid = null;
-        	while(itr.hasNext()){
-        		pid = (PageId)itr.next();
-        		writeLock.remove(pid);
-        	}
-            exclusivePages.remove(tid);
-        }
+    	}
+    }
+
+    /**
+     * @return the number of pages and tables tid holds locks on
+     */
+    int locksHeld(TransactionId tid){
+    	Held h = held.get(key(tid));
+    	return h == null ? 0 : h.size();
+    }
+
+    /**
+     * @return the mode tid holds table in, or null
+     */
+    Mode tableLock(TransactionId tid, int table){
+    	return heldMode(key(tid), table);
     }
-    
 }
@@ -88,6 +88,8 @@ public class LogFile {
     static int LONG_SIZE = 8;
 
     long currentOffset = -1;
+    // the log is on disk at least up to here
+    long forcedOffset = 0;
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
@@ -191,10 +193,12 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset the record ends at; pass it to forceTo before
+        writing the page itself
 
         @see minibase.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
@@ -216,6 +220,7 @@ public class LogFile {
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return currentOffset;
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -265,7 +270,15 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isAssignableFrom(idClass)
+                        && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor for " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +288,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -450,6 +463,9 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        // offsets handed out before now are too large, which forceTo
+        // treats safely
+        forcedOffset = 0;
         //print();
     }
 
@@ -471,12 +487,23 @@ public class LogFile {
         }
     }
 
+    /**
+     * @return the file kept next to the log that lists the pages cached at
+     *   shutdown
+     * @see BufferPool#warmUp
+     */
+    public File getWarmUpFile() {
+        return new File(logFile.getPath() + ".warm");
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
+            // which pages were cached, so the next start can read them again
+            Database.getBufferPool().saveResidentPages(getWarmUpFile());
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
         } catch (IOException e) {
@@ -505,6 +532,17 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        forcedOffset = currentOffset;
+    }
+
+    /** Force the log to disk, unless everything up to offset is there
+        already.
+
+        @param offset an offset returned by logWrite
+    */
+    public synchronized void forceTo(long offset) throws IOException {
+        if (offset > forcedOffset)
+            force();
     }
 
 }
@@ -2,6 +2,7 @@ package minibase;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -258,6 +259,38 @@ public class LogicalPlan {
 
     }
 
+    /** Return the indexes of the fields of the table scanned as alias that
+     *  this plan refers to anywhere, so that a columnar table only reads those
+     *  columns, or null if the plan needs all of them (SELECT *).
+     */
+    private int[] getReferencedFields(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i)))
+                fields.add(i);
+        }
+        int[] result = new int[fields.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = fields.get(i);
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -294,7 +327,9 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDbFile(table.t);
+                 ss = new SeqScan(t, file.getId(), table.alias,
+                         getReferencedFields(table.alias, file.getTupleDesc()));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,6 +369,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
+            // a scan not filtered yet may skip pages holding no tuple
+            // satisfying p
+            if (subplan instanceof SeqScan)
+                subplan = ((SeqScan) subplan).withFilter(p);
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
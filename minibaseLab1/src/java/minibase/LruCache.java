@@ -4,77 +4,89 @@ import java.util.*;
 
 
 /**
+ * A map of bounded size that keeps its entries in order of use: get and
+ * put make an entry the most recently used one, and once the cache is
+ * full, put makes room by evicting the least recently used entry. All
+ * operations take constant time.
+ *
  * @param <K> Type of the Cache Key
  * @param <V> Type of the Cache Elements
  */
 public class LruCache <K, V> {
 
-	HashMap<K,V> cache;
-	HashMap<Integer,K> latency;
-	int capacity, latencyNum, findNum;
+	// in order of use, least recently used first
+	private final LinkedHashMap<K,V> cache;
+	private final int capacity;
+
 	/**
 	 * Constructor
-	 * @param capacity
+	 * @param capacity the largest number of entries the cache holds
 	 */
 	public LruCache (int capacity) {
-	  // TODO: some code goes here 
-	  cache = new HashMap<K,V>();
-	  latency = new HashMap<Integer,K>();
-	  this.capacity = capacity; latencyNum=0; findNum=0;
+	  if (capacity <= 0)
+	      throw new IllegalArgumentException("capacity must be positive");
+	  this.cache = new LinkedHashMap<K,V>(16, 0.75f, true);
+	  this.capacity = capacity;
 	}
 
+	/**
+	 * @return true if key is in the cache; does not count as a use
+	 */
 	public boolean isCached(K key) {
-	  // TODO: some code goes here 
-	  if(cache.containsKey(key)) return true;
-	  else return false;
+	  return cache.containsKey(key);
 	}
 
+	/**
+	 * @return the value cached for key, or null; a hit makes key the most
+	 *   recently used entry
+	 */
 	public V get (K key) {
-	  // TODO: some code goes here 
-	  if(isCached(key)) return cache.get(key);
-	  else return null;
+	  return cache.get(key);
 	}
 
+	/**
+	 * Caches value for key as the most recently used entry, evicting the
+	 * least recently used one if the cache is full.
+	 */
 	public void put (K key, V value) {
-	  // TODO: some code goes here 
-	  if(size() <= capacity){
-	  	cache.put(key,value);
-	  	latency.put(latencyNum++,key);
-	  } 
+	  cache.put(key, value);
+	  if (cache.size() > capacity)
+	      evict();
+	}
+
+	/**
+	 * Removes key from the cache.
+	 *
+	 * @return the value that was cached for key, or null
+	 */
+	public V remove (K key) {
+	  return cache.remove(key);
 	}
 
+	/**
+	 * Removes the least recently used entry.
+	 *
+	 * @return its value, or null if the cache is empty
+	 */
 	public V evict() {
-	  // TODO: some code goes here 
-	  boolean find=false;
-	  K key=null;
-	  while(find){
-	  	if(latency.containsKey(findNum)){
-	  		key = latency.get(findNum);
-	  		find=true;
-	  		latency.remove(findNum);
-	  		findNum++;
-	  	}
-	  }
-	  V value = cache.get(key);
-	  cache.remove(key);
+	  Iterator<V> itr = cache.values().iterator();
+	  if (!itr.hasNext())
+	      return null;
+	  V value = itr.next();
+	  itr.remove();
 	  return value;
 	}
 
 	public int size() {
-	  // TODO: some code goes here 
 	  return cache.size();
 	}
-	
+
+	/**
+	 * @return the cached values, least recently used first; iterating does
+	 *   not count as a use, and the cache must not change meanwhile
+	 */
 	public Iterator<V> iterator() {
-	  // TODO: some code goes here,,, please implement freely! you can remove and make new method 
-	  Iterator<K> itr = cache.keySet().iterator();
-	  HashSet<V> valueSet = new HashSet<V>();
-	  
-	  while(itr.hasNext()){
-	  	K key = itr.next();
-	  	valueSet.add(cache.get(key));
-	  }
-	  return valueSet.iterator();
+	  return Collections.unmodifiableCollection(cache.values()).iterator();
 	}
 
 
@@ -0,0 +1,109 @@
+package minibase;
+
+import java.util.*;
+
+/**
+ * The LRU-K policy of O'Neil, O'Neil and Weikum: evicts the page whose K-th
+ * most recent use lies furthest back. Pages used fewer than K times go
+ * first, least recently used first, so a page read once by a large scan is
+ * evicted before a page that is used over and over.
+ * <p>
+ * The use history of a page is kept for a while after it is evicted, so a
+ * page that comes back soon is recognised as frequently used.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    private final int k;
+    // logical time, advanced on every add and use
+    private long now = 0;
+    private final HashMap<PageId, History> cached = new HashMap<PageId, History>();
+    // the cached pages in eviction order
+    private final TreeSet<History> order = new TreeSet<History>(new Comparator<History>() {
+        public int compare(History a, History b) {
+            int c = Long.compare(a.kthUse(), b.kthUse());
+            return c != 0 ? c : Long.compare(a.lastUse, b.lastUse);
+        }
+    });
+    // histories of evicted pages
+    private final LruCache<PageId, History> retained;
+
+    private class History {
+        final PageId pid;
+        // the last k uses, as a ring starting at uses % k
+        final long[] times = new long[k];
+        int uses = 0;
+        long lastUse;
+
+        History(PageId pid) {
+            this.pid = pid;
+        }
+
+        void use(long t) {
+            times[uses % k] = t;
+            uses++;
+            lastUse = t;
+        }
+
+        long kthUse() {
+            return uses >= k ? times[uses % k] : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @param k the number of uses to look back over; 1 gives plain LRU
+     * @param retainedPages the number of evicted pages to remember the
+     *   history of
+     */
+    public LruKPolicy(int k, int retainedPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.retained = new LruCache<PageId, History>(Math.max(1, retainedPages));
+    }
+
+    public void pageAdded(PageId pid) {
+        if (cached.containsKey(pid))
+            return;
+        History h = retained.remove(pid);
+        if (h == null)
+            h = new History(pid);
+        // a page read ahead is not used yet, but it is newer than any page
+        // that was used only once before
+        h.lastUse = ++now;
+        cached.put(pid, h);
+        order.add(h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = cached.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.use(++now);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = cached.remove(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        retained.put(pid, h);
+    }
+
+    public Iterator<PageId> victims() {
+        final Iterator<History> it = order.iterator();
+        return new Iterator<PageId>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public PageId next() {
+                return it.next().pid;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package minibase;
+
+import java.util.Iterator;
+
+/**
+ * Evicts the least recently used page.
+ */
+public class LruPolicy implements ReplacementPolicy {
+    private final LruCache<PageId, PageId> pages = new LruCache<PageId, PageId>(Integer.MAX_VALUE);
+
+    public void pageAdded(PageId pid) {
+        pages.put(pid, pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        pages.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public Iterator<PageId> victims() {
+        return pages.iterator();
+    }
+}
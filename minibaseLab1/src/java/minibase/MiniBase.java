@@ -44,12 +44,40 @@ public class MiniBase {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            long start = System.nanoTime();
+            long rows = HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Converted %d rows in %.2f s (%.0f rows/s)%n",
+                        rows, secs, rows / secs);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("columnar")) {
+            // columnar heapfile.dat columnarfile.dat numcols [types]
+            if (args.length < 4 || args.length > 5) {
+                System.err.println("Unexpected number of arguments to columnar ");
+                return;
+            }
+            int numOfAttributes = Integer.parseInt(args[3]);
+            Type[] ts = new Type[numOfAttributes];
+            String[] typeStringAr = args.length == 5 ? args[4].split(",") : null;
+            if (typeStringAr != null && typeStringAr.length != numOfAttributes) {
+                System.err.println("The number of types does not agree with the number of columns");
+                return;
+            }
+            for (int i = 0; i < numOfAttributes; i++) {
+                if (typeStringAr == null || typeStringAr[i].toLowerCase().equals("int"))
+                    ts[i] = Type.INT_TYPE;
+                else if (typeStringAr[i].toLowerCase().equals("string"))
+                    ts[i] = Type.STRING_TYPE;
+                else {
+                    System.err.println("Unknown type " + typeStringAr[i]);
+                    return;
+                }
+            }
+            ColumnarFile.fromHeapFile(new File(args[1]), new TupleDesc(ts), new File(args[2]));
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -7,7 +7,7 @@ package minibase;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -0,0 +1,144 @@
+package minibase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel gives a DbFile positional access to its backing file through
+ * one long-lived FileChannel. The channel is opened on first use and stays
+ * open until {@link #close}, so page reads and writes don't pay an open/close
+ * pair each; it is reopened transparently on the next access after a close.
+ * Positional reads and writes don't touch the shared file pointer, so
+ * concurrent callers can use the same channel. A file is opened in the mode
+ * it allows, read-only if it can't be written, and only writes create a
+ * missing file.
+ */
+public class PageChannel {
+    private final File file;
+    private volatile FileChannel channel;
+
+    /**
+     * @param file the file to read and write; created on the first write if
+     *             it doesn't exist
+     */
+    public PageChannel(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the open channel, opening it if necessary and creating the
+     * file if it doesn't exist.
+     */
+    public FileChannel getChannel() throws IOException {
+        return getChannel(true);
+    }
+
+    /**
+     * Returns the open channel, opening it if necessary.
+     *
+     * @param create whether to create the file if it doesn't exist
+     * @throws FileNotFoundException if the file doesn't exist and create is
+     *   false
+     */
+    public FileChannel getChannel(boolean create) throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen())
+                channel = open(create);
+            return channel;
+        }
+    }
+
+    /**
+     * Opens the file for reading and writing, or only for reading if it
+     * can't be written, so tables on a read-only file or mount can still be
+     * queried; writing to it then fails.
+     */
+    private FileChannel open(boolean create) throws IOException {
+        if (!file.exists()) {
+            if (!create)
+                throw new FileNotFoundException(file.getPath() + " doesn't exist");
+            return new RandomAccessFile(file, "rw").getChannel();
+        }
+        return new RandomAccessFile(file, file.canWrite() ? "rw" : "r").getChannel();
+    }
+
+    /**
+     * Reads into buf starting at position until buf is full or the end of the
+     * file is reached. The remainder of buf is left untouched on a short read.
+     *
+     * @return the number of bytes read, 0 if position is at or past the end
+     *   of the file
+     */
+    public int read(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = getChannel(false);
+        long start = position - buf.position();
+        int read = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, start + buf.position());
+            if (n < 0)
+                break;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Writes all remaining bytes of buf starting at position.
+     */
+    public void write(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = getChannel();
+        long start = position - buf.position();
+        while (buf.hasRemaining())
+            ch.write(buf, start + buf.position());
+    }
+
+    /**
+     * Writes all remaining bytes of bufs, one after another, starting at
+     * position, in as few system calls as the platform allows. Gathered
+     * writes go through the channel's file pointer, so they are serialized
+     * with each other; positional reads and writes are not held up.
+     */
+    public void write(ByteBuffer[] bufs, long position) throws IOException {
+        FileChannel ch = getChannel();
+        synchronized (ch) {
+            ch.position(position);
+            for (int i = 0; i < bufs.length; ) {
+                ch.write(bufs, i, bufs.length - i);
+                while (i < bufs.length && !bufs[i].hasRemaining())
+                    i++;
+            }
+        }
+    }
+
+    /**
+     * Forces what was written to the file out to the storage device.
+     */
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return getChannel(false).size();
+    }
+
+    /**
+     * Closes the channel, if it is open.
+     */
+    public synchronized void close() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,176 @@
+package minibase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageVersions keeps the committed images of pages that snapshots may
+ * still read, for a BufferPool serving snapshot reads.
+ * <p>
+ * Commits that change pages are numbered in the order they start. Before a
+ * commit replaces the committed image of a page, the image is kept here,
+ * marked with the number of the commit that replaced it. A snapshot sees
+ * every commit up to the one it started after: the last commit such that it
+ * and all commits before it had completed. If a page was changed by a later
+ * commit, the snapshot reads the oldest image replaced after it started.
+ * <p>
+ * An image is dropped once no snapshot can read it: when every snapshot
+ * that started before the commit replacing it has ended, and that commit
+ * and all before it have completed, so no new snapshot can start before it
+ * either.
+ *
+ * @see BufferPool#beginSnapshot
+ */
+class PageVersions {
+
+    /** A committed image of a page and the commit that replaced it. */
+    private static class Version {
+        final Page image;
+        final long replacedBy;
+
+        Version(Page image, long replacedBy) {
+            this.image = image;
+            this.replacedBy = replacedBy;
+        }
+    }
+
+    /** The images of one page, newest first. Guarded by its own monitor. */
+    private static class History {
+        // the last commit that changed the page
+        long lastCommit;
+        final ArrayDeque<Version> versions = new ArrayDeque<Version>();
+        // set once the history is dropped from the map; a commit then needs
+        // a new one
+        boolean dropped = false;
+    }
+
+    private final ConcurrentHashMap<PageId, History> pages = new ConcurrentHashMap<PageId, History>();
+
+    // the rest is guarded by this
+    // the number of the last commit that started
+    private long lastCommit = 0;
+    // the last commit such that it and every commit before it completed
+    private long completed = 0;
+    private final TreeSet<Long> committing = new TreeSet<Long>();
+    // how many snapshots started after each commit
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<Long, Integer>();
+    // images replaced by commits up to this have been dropped
+    private long pruned = 0;
+
+    /**
+     * @return the number of a new commit, which must be passed to
+     *   {@link #endCommit} when its pages have their new committed images
+     */
+    synchronized long beginCommit() {
+        committing.add(++lastCommit);
+        return lastCommit;
+    }
+
+    /**
+     * Keeps the committed image of pid, which commit is about to replace.
+     */
+    void retain(PageId pid, Page image, long commit) {
+        while (true) {
+            History h = pages.get(pid);
+            if (h == null) {
+                History fresh = new History();
+                h = pages.putIfAbsent(pid, fresh);
+                if (h == null)
+                    h = fresh;
+            }
+            synchronized (h) {
+                if (h.dropped)
+                    continue;
+                h.versions.addFirst(new Version(image, commit));
+                h.lastCommit = commit;
+                return;
+            }
+        }
+    }
+
+    void endCommit(long commit) {
+        synchronized (this) {
+            committing.remove(commit);
+            completed = committing.isEmpty() ? lastCommit : committing.first() - 1;
+        }
+        prune();
+    }
+
+    /**
+     * @return the last commit the new snapshot sees
+     */
+    synchronized long beginSnapshot() {
+        Integer n = snapshots.get(completed);
+        snapshots.put(completed, n == null ? 1 : n + 1);
+        return completed;
+    }
+
+    void endSnapshot(long snapshot) {
+        synchronized (this) {
+            int n = snapshots.get(snapshot);
+            if (n > 1)
+                snapshots.put(snapshot, n - 1);
+            else
+                snapshots.remove(snapshot);
+        }
+        prune();
+    }
+
+    /**
+     * Returns the image of a page a snapshot sees.
+     *
+     * @param current the page as it is cached now; its before image is the
+     *   committed image, read before checking for older ones
+     * @param snapshot the last commit the snapshot sees
+     */
+    Page read(Page current, long snapshot) {
+        Page image = current.getBeforeImage();
+        // a commit that replaced the image meanwhile has kept the old one
+        History h = pages.get(current.getId());
+        if (h == null)
+            return image;
+        synchronized (h) {
+            if (h.lastCommit <= snapshot)
+                return image;
+            Version found = null;
+            for (Version v : h.versions) {
+                if (v.replacedBy <= snapshot)
+                    break;
+                found = v;
+            }
+            // a copy, so readers don't share the tuples they decode
+            return found.image.getBeforeImage();
+        }
+    }
+
+    /**
+     * @return the number of pages that have images kept
+     */
+    int size() {
+        return pages.size();
+    }
+
+    /**
+     * Drops the images no snapshot can read any more.
+     */
+    private void prune() {
+        long horizon;
+        synchronized (this) {
+            horizon = snapshots.isEmpty() ? completed : snapshots.firstKey();
+            if (horizon <= pruned)
+                return;
+            pruned = horizon;
+        }
+        for (Iterator<History> it = pages.values().iterator(); it.hasNext(); ) {
+            History h = it.next();
+            synchronized (h) {
+                while (!h.versions.isEmpty() && h.versions.peekLast().replacedBy <= horizon)
+                    h.versions.pollLast();
+                if (h.lastCommit <= horizon) {
+                    h.dropped = true;
+                    it.remove();
+                }
+            }
+        }
+    }
+}
@@ -436,29 +436,29 @@ public class Parser {
                 throw new minibase.ParsingException(
                         "No transaction is currently running");
             curtrans.commit();
-            curtrans = null;
-            inUserTrans = false;
             System.out.println("Transaction " + curtrans.getId().getId()
                     + " committed.");
+            curtrans = null;
+            inUserTrans = false;
         } else if (s.getStmtType().equals("ROLLBACK")) {
             if (curtrans == null)
                 throw new minibase.ParsingException(
                         "No transaction is currently running");
             curtrans.abort();
-            curtrans = null;
-            inUserTrans = false;
             System.out.println("Transaction " + curtrans.getId().getId()
                     + " aborted.");
+            curtrans = null;
+            inUserTrans = false;
 
         } else if (s.getStmtType().equals("SET TRANSACTION")) {
             if (curtrans != null)
                 throw new minibase.ParsingException(
                         "Can't start new transactions until current transaction has been committed or rolledback.");
-            curtrans = new Transaction();
+            curtrans = new Transaction(s.isReadOnly());
             curtrans.start();
             inUserTrans = true;
-            System.out.println("Started a new transaction tid = "
-                    + curtrans.getId().getId());
+            System.out.println("Started a new " + (s.isReadOnly() ? "read-only " : "")
+                    + "transaction tid = " + curtrans.getId().getId());
         } else {
             throw new minibase.ParsingException("Unsupported operation");
         }
@@ -494,6 +494,8 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        if (handleShowStatement(s))
+            return;
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -502,6 +504,22 @@ public class Parser {
         }
     }
 
+    /**
+     * Handles the statements the SQL parser does not know about, which for
+     * now is SHOW BUFFERPOOL: it prints the counters of the buffer pool.
+     *
+     * @return true if s was such a statement
+     */
+    public boolean handleShowStatement(String s) {
+        String cmd = s.trim();
+        if (cmd.endsWith(";"))
+            cmd = cmd.substring(0, cmd.length() - 1).trim();
+        if (!cmd.replaceAll("\\s+", " ").equalsIgnoreCase("show bufferpool"))
+            return false;
+        System.out.print(Database.getBufferPool().getMetrics().report());
+        return true;
+    }
+
     public void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
@@ -512,7 +530,8 @@ public class Parser {
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
+                    // a query on its own only reads, so it reads a snapshot
+                    curtrans = new Transaction(s instanceof ZQuery);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
@@ -582,7 +601,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "show bufferpool" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -599,6 +618,7 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -607,6 +627,9 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // read back what was cached when the database last shut down,
+        // without waiting for it
+        Database.getBufferPool().warmUp(Database.getLogFile().getWarmUpFile());
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -677,8 +700,9 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (!handleShowStatement(cmd))
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
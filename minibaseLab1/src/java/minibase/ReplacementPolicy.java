@@ -0,0 +1,40 @@
+package minibase;
+
+import java.util.Iterator;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room for another one. The pool tells the policy which pages it holds and
+ * when they are used, and asks it for candidates to evict; a candidate the
+ * pool cannot evict (because it is dirty) is skipped.
+ * <p>
+ * The BufferPool calls a policy only while holding its own lock, so
+ * implementations need not be thread-safe.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when pid is read into the pool, either for a request or ahead
+     * of one; a request is reported separately through pageAccessed.
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called whenever a page in the pool is requested.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when pid leaves the pool.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Returns the pages in the pool in the order they should be evicted.
+     * The pool stops iterating once it finds a page it can evict, and
+     * reports the eviction through pageRemoved after that.
+     */
+    public Iterator<PageId> victims();
+}
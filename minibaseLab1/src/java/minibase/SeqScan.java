@@ -14,6 +14,7 @@ public class SeqScan implements DbIterator {
     private TransactionId tid;
     private int tableId;
     private String tableAlias;
+    private int[] columns;
     private DbFileIterator iterator;
 
     /**
@@ -34,10 +35,52 @@ public class SeqScan implements DbIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // TODO: some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that only needs the
+     * given columns. Files that store columns separately (ColumnarFile) read
+     * only those columns and leave the other fields of the returned tuples
+     * null; other files return whole tuples.
+     *
+     * @param columns
+     *            indexes of the columns the plan above this scan uses, or
+     *            null for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table for a plan that
+     * only wants tuples satisfying filter, so that it may skip pages that
+     * can't hold any (see {@link ZoneMap}). The scan may still return tuples
+     * that don't satisfy filter; a Filter above it applies filter itself.
+     *
+     * @param filter
+     *            the predicate the plan above this scan applies, or null
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns, Predicate filter) {
         this.tid=tid;
         this.tableId=tableid;
         this.tableAlias=tableAlias;
-        this.iterator=Database.getCatalog().getDbFile(tableId).iterator(tid);
+        this.columns=columns;
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (columns != null && file instanceof ColumnarFile)
+            this.iterator=((ColumnarFile) file).iterator(tid, columns);
+        else if (filter != null && file instanceof HeapFile)
+            this.iterator=((HeapFile) file).iterator(tid, filter);
+        else
+            this.iterator=file.iterator(tid);
+    }
+
+    /**
+     * @return a new scan like this one, that may skip pages holding no tuple
+     *   satisfying filter
+     */
+    SeqScan withFilter(Predicate filter) {
+        return new SeqScan(tid, tableId, tableAlias, columns, filter);
     }
 
     /**
@@ -0,0 +1,250 @@
+package minibase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order on SlottedPages, whose records are variable
+ * length. It suits tables dominated by strings much shorter than
+ * Type.STRING_LEN, which HeapFile pads out to full width. The format of
+ * SlottedPages is described in the SlottedPage constructor.
+ * <p>
+ * Pages are identified by HeapPageIds, and tuples by the slot number of
+ * their page's slot directory, so operators work on a SlottedFile exactly as
+ * they do on a HeapFile.
+ *
+ * @see minibase.SlottedPage#SlottedPage
+ */
+public class SlottedFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private transient final PageChannel channel;
+    private transient FreeSpaceMap freeSpaceMap;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new PageChannel(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, derived from the
+     * absolute file name as for HeapFile.
+     */
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it from its side file
+     * (the data file name plus ".fsm") on first use. A page is marked free
+     * while it has room for the largest record the schema allows. If the
+     * side file is missing or unreadable the map is rebuilt from the page
+     * headers on disk; pages appended since it was written are marked free.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpaceMap != null)
+            return freeSpaceMap;
+
+        File side = new File(file.getPath() + ".fsm");
+        int np = numPages();
+        FreeSpaceMap fsm = FreeSpaceMap.load(side);
+        if (fsm == null || fsm.numPages() > np) {
+            fsm = new FreeSpaceMap(side);
+            try {
+                int threshold = SlottedPage.getMaxRecordSize(td);
+                ByteBuffer header = ByteBuffer.allocate(SlottedPage.HEADER_SIZE);
+                for (int i = 0; i < np; i++) {
+                    header.clear();
+                    channel.read(header, (long) i * BufferPool.PAGE_SIZE);
+                    fsm.setFree(i, SlottedPage.getFreeBytes(header) >= threshold);
+                }
+            } catch (IOException e) {
+                // fall back to treating every page as a candidate
+                e.printStackTrace();
+                for (int i = 0; i < np; i++)
+                    fsm.setFree(i, true);
+            }
+        }
+        for (int i = fsm.numPages(); i < np; i++)
+            fsm.setFree(i, true);
+        freeSpaceMap = fsm;
+        return fsm;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        if (freeSpaceMap != null) {
+            try {
+                freeSpaceMap.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // loaded again from its side file on next use
+            freeSpaceMap = null;
+        }
+        channel.close();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        long position = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+        try {
+            if (position < 0)
+                throw new IllegalArgumentException("the page doesn't exist");
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            // nothing to read past the end of the file
+            if (channel.read(buf, position) == 0)
+                throw new IllegalArgumentException("the page doesn't exist");
+            return new SlottedPage((HeapPageId) pid, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long position = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
+        channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.PAGE_SIZE), position);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t == null)
+            throw new DbException("tuple is null");
+        if (SlottedPage.getRecordSize(t) + SlottedPage.SLOT_SIZE > BufferPool.PAGE_SIZE - SlottedPage.HEADER_SIZE)
+            throw new DbException("tuple doesn't fit on a page");
+
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int np = numPages();
+
+        // pages the map skips may still fit a short record; try the last one
+        if (np > 0 && !fsm.isFree(np - 1) && tryInsert(tid, np - 1, t, pageList))
+            return pageList;
+        for (int i = fsm.nextFreePage(0); i >= 0 && i < np; i = fsm.nextFreePage(i + 1)) {
+            if (tryInsert(tid, i, t, pageList))
+                return pageList;
+            fsm.setFree(i, false);
+        }
+
+        // extend the file with an empty page and fill it through the buffer
+        // pool, so it is locked and logged like any other page; concurrent
+        // inserts may fill it first, then extend it again
+        while (true) {
+            int pgNo;
+            synchronized (this) {
+                pgNo = numPages();
+                writePage(new SlottedPage(new HeapPageId(getId(), pgNo), SlottedPage.createEmptyPageData()));
+                fsm.setFree(pgNo, true);
+            }
+            if (tryInsert(tid, pgNo, t, pageList))
+                return pageList;
+        }
+    }
+
+    private boolean tryInsert(TransactionId tid, int pgNo, Tuple t, ArrayList<Page> pageList)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        if (!page.canInsert(t))
+            return false;
+        page.insertTuple(t);
+        pageList.add(page);
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /**
+     * Iterates over all tuples of this file, one page at a time.
+     */
+    private class SlottedFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private int curPage = -1;
+        private int numPages;
+        private Iterator<Tuple> itr = null;
+
+        public SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            curPage = -1;
+            numPages = numPages();
+            itr = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (itr == null)
+                return false;
+            while (!itr.hasNext()) {
+                if (curPage + 1 >= numPages)
+                    return false;
+                curPage++;
+                HeapPageId pid = new HeapPageId(getId(), curPage);
+                itr = ((SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return itr.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            itr = null;
+            curPage = -1;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package minibase;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile and
+ * implements the Page interface that is used by BufferPool. Unlike HeapPage,
+ * whose slots are all td.getSize() bytes wide, records here only take the
+ * bytes their values need, so a page of short strings holds many more tuples.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes of the page header: slot count, start of record data, free bytes. */
+    public static final int HEADER_SIZE = 6;
+    /** Bytes of one slot directory entry: record offset and record length. */
+    public static final int SLOT_SIZE = 4;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private boolean mark_isDirty;
+    private TransactionId mark_dirtyTid;
+
+    // the live page image; shared with oldData until the first change
+    private byte[] data;
+    private ByteBuffer buf;
+    private byte[] oldData;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * page starts with a header of three unsigned shorts: the number of
+     * entries in the slot directory, the offset of the lowest byte used by a
+     * record, and the number of free bytes on the page (including space left
+     * by deleted records that hasn't been compacted yet). The slot directory
+     * follows the header and grows up; each entry is an unsigned short
+     * record offset (0 for an empty slot) and an unsigned short record
+     * length. Records are packed at the end of the page and grow down.
+     * <p>
+     * A record stores its fields in schema order: an int field takes 4
+     * bytes, a string field a 2-byte length followed by its characters, so
+     * strings take only the space they need rather than Type.STRING_LEN.
+     * <p>
+     * An all-zero page (see {@link #createEmptyPageData}) is an empty page.
+     * The page keeps a reference to data (which must not be modified
+     * afterwards) and copies it only when it is first changed.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length != BufferPool.PAGE_SIZE)
+            throw new IOException("page must be " + BufferPool.PAGE_SIZE + " bytes");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.oldData = data;
+        // a fresh page has no records; it is formatted on its first change
+        if (getDataStart() == 0 && getNumSlots() != 0)
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    /**
+     * Returns the number of bytes a record of t occupies on a page, not
+     * counting its slot directory entry.
+     */
+    public static int getRecordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the largest possible record of td occupies
+     * on a page, including its slot directory entry.
+     */
+    public static int getMaxRecordSize(TupleDesc td) {
+        int size = SLOT_SIZE;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.INT_TYPE ? 4 : 2 + Type.STRING_LEN;
+        return size;
+    }
+
+    /**
+     * Returns the number of free bytes recorded in the header of a page
+     * image, as written by getPageData.
+     */
+    static int getFreeBytes(ByteBuffer header) {
+        int dataStart = header.getShort(2) & 0xffff;
+        if (dataStart == 0)
+            return BufferPool.PAGE_SIZE - HEADER_SIZE;
+        return header.getShort(4) & 0xffff;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = data;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int getNumSlots() {
+        return buf.getShort(0) & 0xffff;
+    }
+
+    private int getDataStart() {
+        return buf.getShort(2) & 0xffff;
+    }
+
+    private int getSlotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+    }
+
+    private int getSlotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    private void setHeader(int numSlots, int dataStart, int freeBytes) {
+        buf.putShort(0, (short) numSlots);
+        buf.putShort(2, (short) dataStart);
+        buf.putShort(4, (short) freeBytes);
+    }
+
+    /**
+     * Returns the number of free bytes on this page, including space held by
+     * deleted records.
+     */
+    public int getFreeBytes() {
+        return getFreeBytes(buf);
+    }
+
+    /**
+     * Returns true if t fits on this page.
+     */
+    public boolean canInsert(Tuple t) {
+        int need = getRecordSize(t);
+        if (findEmptySlot() < 0)
+            need += SLOT_SIZE;
+        return need <= getFreeBytes();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && getSlotOffset(i) != 0;
+    }
+
+    private int findEmptySlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (getSlotOffset(i) == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Copy the page image before its first change so that oldData and any
+     * buffer it was read from stay untouched, and format a fresh page.
+     */
+    private void beforeWrite() {
+        if (data == oldData) {
+            data = data.clone();
+            buf = ByteBuffer.wrap(data);
+        }
+        if (getDataStart() == 0)
+            setHeader(0, BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE - HEADER_SIZE);
+    }
+
+    /**
+     * Move all records to the end of the page so that the free space between
+     * the slot directory and the records is contiguous. Slot numbers, and so
+     * RecordIds, don't change.
+     */
+    private void compact() {
+        int n = getNumSlots();
+        byte[] packed = new byte[BufferPool.PAGE_SIZE];
+        int dataStart = BufferPool.PAGE_SIZE;
+        for (int i = 0; i < n; i++) {
+            int off = getSlotOffset(i);
+            if (off == 0)
+                continue;
+            int len = getSlotLength(i);
+            dataStart -= len;
+            System.arraycopy(data, off, packed, dataStart, len);
+            setSlot(i, dataStart, len);
+        }
+        System.arraycopy(packed, dataStart, data, dataStart, BufferPool.PAGE_SIZE - dataStart);
+        int dirEnd = HEADER_SIZE + n * SLOT_SIZE;
+        Arrays.fill(data, dirEnd, dataStart, (byte) 0);
+        setHeader(n, dataStart, dataStart - dirEnd);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. The
+     * returned array is the page itself; callers must not modify it, and
+     * must copy it if they need it to outlive the next change to the page.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data;
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page. Its bytes are reclaimed the
+     *   next time an insert needs contiguous space.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple has no record id");
+        if (!pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+
+        beforeWrite();
+        int n = getNumSlots();
+        int free = getFreeBytes() + getSlotLength(slot);
+        setSlot(slot, 0, 0);
+        // drop empty entries from the end of the directory
+        while (n > 0 && getSlotOffset(n - 1) == 0) {
+            n--;
+            setSlot(n, 0, 0);
+            free += SLOT_SIZE;
+        }
+        setHeader(n, getDataStart(), free);
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page doesn't have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+        if (!canInsert(t))
+            throw new DbException("page is full");
+
+        beforeWrite();
+        int len = getRecordSize(t);
+        int slot = findEmptySlot();
+        int n = getNumSlots();
+        int need = len;
+        if (slot < 0) {
+            slot = n++;
+            need += SLOT_SIZE;
+        }
+        int free = getFreeBytes() - need;
+        if (getDataStart() - (HEADER_SIZE + n * SLOT_SIZE) < len)
+            compact();
+
+        int off = getDataStart() - len;
+        writeRecord(t, off);
+        setSlot(slot, off, len);
+        setHeader(n, off, free);
+
+        t.setRecordId(new RecordId(pid, slot));
+        updateFreeSpaceMap();
+    }
+
+    private void writeRecord(Tuple t, int off) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                buf.putInt(off, ((IntField) f).getValue());
+                off += 4;
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putShort(off, (short) len);
+                off += 2;
+                for (int j = 0; j < len; j++)
+                    data[off + j] = (byte) s.charAt(j);
+                off += len;
+            }
+        }
+    }
+
+    private Tuple readRecord(int slot) {
+        int off = getSlotOffset(slot);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(buf.getInt(off)));
+                off += 4;
+            } else {
+                int len = buf.getShort(off) & 0xffff;
+                off += 2;
+                t.setField(i, new StringField(new String(data, off, len), Type.STRING_LEN));
+                off += len;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Tell the SlottedFile this page belongs to whether the page still has
+     * room for the largest possible record, so that inserts can find it
+     * without a scan.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        if (f instanceof SlottedFile)
+            ((SlottedFile) f).getFreeSpaceMap().setFree(pid.pageNumber(),
+                    getFreeBytes() >= getMaxRecordSize(td));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        mark_isDirty = dirty;
+        mark_dirtyTid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (mark_isDirty)
+            return mark_dirtyTid;
+        else
+            return null;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        int count = 0;
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (getSlotOffset(i) != 0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * The tuples are decoded up front, so later changes to the page don't
+     * affect them.
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (getSlotOffset(i) != 0)
+                tuples.add(readRecord(i));
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+}
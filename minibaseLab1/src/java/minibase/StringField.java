@@ -1,6 +1,7 @@
 package minibase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,25 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at offset, in the same format as
+	 * {@link #serialize(DataOutputStream)}.
+	 * 
+	 * @param buf
+	 *            Where the string is written
+	 * @param offset
+	 *            Index in buf of the first byte written
+	 */
+	public void serialize(ByteBuffer buf, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(offset, len);
+		offset += 4;
+		for (int i = 0; i < len; i++)
+			buf.put(offset + i, (byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put(offset + i, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
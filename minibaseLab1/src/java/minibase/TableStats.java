@@ -168,7 +168,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        double numpages = ((HeapFile)Database.getCatalog().getDbFile(this.tableid)).numPages();
+        double numpages = Database.getCatalog().getDbFile(this.tableid).numPages();
         return numpages*(double)ioCostPerPage;
     }
 
@@ -5,19 +5,37 @@ import java.io.*;
 /**
  * Transaction encapsulates information about the state of
  * a transaction and manages transaction commit / abort.
+ * <p>
+ * A transaction declared read-only reads a snapshot of the database taken
+ * when it starts, see {@link BufferPool#beginSnapshot}. It takes no locks,
+ * has nothing to write back or roll back, and writes no log records, so
+ * completing it never syncs the log.
  */
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction only reads, see above
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,6 +47,10 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,7 +66,9 @@ public class Transaction {
 
         if (started) {
             //write commit / abort records
-            if (abort) {
+            if (readOnly) {
+                // nothing to log, write back or roll back
+            } else if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
                 //write all the dirty pages for this transaction out
@@ -47,6 +47,8 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private List <TDItem> fieldList; 
+    // computed on first use by getFieldOffset
+    private transient int[] fieldOffsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -166,6 +168,29 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple of this
+     * TupleDesc, i.e. the sum of the sizes of the fields before it.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if(i<0 || i>= fieldList.size())
+            throw new NoSuchElementException();
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[fieldList.size()];
+            for (int j = 1; j < offsets.length; j++)
+                offsets[j] = offsets[j-1] + fieldList.get(j-1).fieldType.getLen();
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
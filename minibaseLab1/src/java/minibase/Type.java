@@ -2,6 +2,7 @@ package minibase;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in minibase.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -34,6 +40,8 @@ public enum Type implements Serializable {
         public Field parse(DataInputStream dis) throws ParseException {
             try {
                 int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
@@ -42,6 +50,18 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            // checked before allocating: garbage could ask for gigabytes
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new IllegalArgumentException("bad string length " + strLen);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(offset + 4 + i);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +80,15 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at the absolute position
+   *   offset. The buffer's position and limit are left untouched.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field in buf
+   * @throws IllegalArgumentException if the data is not of the appropriate
+   *   type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
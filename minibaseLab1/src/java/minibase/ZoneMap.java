@@ -0,0 +1,219 @@
+package minibase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap remembers, for every page of a HeapFile, the smallest and largest
+ * value of each int column on that page. A scan under a Filter uses it to
+ * skip pages whose range cannot satisfy the filter's predicate.
+ * <p>
+ * Unlike the FreeSpaceMap this is not a hint: a page whose bounds are known
+ * never holds a value outside them. Inserts widen the bounds of their page,
+ * and deletes leave them as they are (still correct, but possibly looser
+ * than necessary). A page whose bounds are unknown, or loose after a delete,
+ * is measured exactly the next time a scan sees it clean, i.e. without
+ * uncommitted changes that could still be rolled back.
+ * <p>
+ * The map is stored in a side file next to the table: the length and
+ * modification time of the table when the map was written, the number of
+ * int columns and of pages, then for each page a state byte and a min/max
+ * pair per int column. The side file is removed when it is loaded and
+ * written again on close, so a crash or an outside change to the table
+ * never leaves bounds behind that no longer hold.
+ *
+ * @see HeapFile#iterator(TransactionId, Predicate)
+ */
+public class ZoneMap {
+    private static final byte UNKNOWN = 0;
+    private static final byte EXACT = 1;
+    private static final byte LOOSE = 2;
+
+    private final File file;
+    private final File dataFile;
+    // indexes of the int columns of the table, and the position of each
+    // field in that list (-1 for other fields)
+    private final int[] columns;
+    private final int[] columnOf;
+
+    private int numPages;
+    private byte[] state = new byte[0];
+    // min and max of column j of page p at 2 * (p * columns.length + j)
+    private int[] bounds = new int[0];
+
+    /**
+     * Creates an empty map for a table of schema td stored in dataFile; the
+     * map itself is saved to file.
+     */
+    public ZoneMap(File file, File dataFile, TupleDesc td) {
+        this.file = file;
+        this.dataFile = dataFile;
+        this.columnOf = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            columnOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        this.columns = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (columnOf[i] >= 0)
+                columns[columnOf[i]] = i;
+        }
+    }
+
+    /**
+     * Reads a map previously written by {@link #save} and removes its side
+     * file.
+     *
+     * @return the map, or null if file does not exist, is malformed, or was
+     *   written for a different version of dataFile
+     */
+    public static ZoneMap load(File file, File dataFile, TupleDesc td) {
+        if (!file.exists())
+            return null;
+        ZoneMap zm = new ZoneMap(file, dataFile, td);
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (dis.readLong() != dataFile.length() || dis.readLong() != dataFile.lastModified()
+                        || dis.readInt() != zm.columns.length)
+                    return null;
+                int n = dis.readInt();
+                if (n < 0 || file.length() != 24 + (long) n * (1 + 8 * zm.columns.length))
+                    return null;
+                zm.ensureCapacity(n);
+                for (int p = 0; p < n; p++) {
+                    zm.state[p] = dis.readByte();
+                    for (int j = 0; j < 2 * zm.columns.length; j++)
+                        zm.bounds[2 * p * zm.columns.length + j] = dis.readInt();
+                }
+                zm.numPages = n;
+                return zm;
+            } finally {
+                dis.close();
+                file.delete();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= state.length)
+            return;
+        int cap = Math.max(pages, 2 * state.length);
+        state = Arrays.copyOf(state, cap);
+        bounds = Arrays.copyOf(bounds, 2 * cap * columns.length);
+    }
+
+    /**
+     * @return true if the bounds of page pgNo are unknown or looser than
+     *   necessary
+     */
+    public synchronized boolean needsUpdate(int pgNo) {
+        return columns.length > 0 && (pgNo >= numPages || state[pgNo] != EXACT);
+    }
+
+    /**
+     * Sets the bounds of page pgNo to exactly cover tuples, which must be
+     * all the committed tuples of the page.
+     */
+    public synchronized void update(int pgNo, Iterator<Tuple> tuples) {
+        ensureCapacity(pgNo + 1);
+        numPages = Math.max(numPages, pgNo + 1);
+        int base = 2 * pgNo * columns.length;
+        for (int j = 0; j < columns.length; j++) {
+            bounds[base + 2 * j] = Integer.MAX_VALUE;
+            bounds[base + 2 * j + 1] = Integer.MIN_VALUE;
+        }
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            for (int j = 0; j < columns.length; j++)
+                widen(base + 2 * j, ((IntField) t.getField(columns[j])).getValue());
+        }
+        state[pgNo] = EXACT;
+    }
+
+    private void widen(int i, int v) {
+        if (v < bounds[i])
+            bounds[i] = v;
+        if (v > bounds[i + 1])
+            bounds[i + 1] = v;
+    }
+
+    /**
+     * Records that t was inserted into page pgNo.
+     */
+    public synchronized void insert(int pgNo, Tuple t) {
+        if (pgNo >= numPages || state[pgNo] == UNKNOWN)
+            return;
+        int base = 2 * pgNo * columns.length;
+        for (int j = 0; j < columns.length; j++)
+            widen(base + 2 * j, ((IntField) t.getField(columns[j])).getValue());
+    }
+
+    /**
+     * Records that t was deleted from page pgNo.
+     */
+    public synchronized void delete(int pgNo, Tuple t) {
+        if (pgNo >= numPages || state[pgNo] != EXACT)
+            return;
+        int base = 2 * pgNo * columns.length;
+        for (int j = 0; j < columns.length; j++) {
+            int v = ((IntField) t.getField(columns[j])).getValue();
+            if (v == bounds[base + 2 * j] || v == bounds[base + 2 * j + 1])
+                state[pgNo] = LOOSE;
+        }
+    }
+
+    /**
+     * Returns false if no tuple on page pgNo can satisfy p, true if some
+     * might (or if nothing is known about the page).
+     */
+    public synchronized boolean mightMatch(int pgNo, Predicate p) {
+        if (p.getField() >= columnOf.length || columnOf[p.getField()] < 0
+                || pgNo >= numPages || state[pgNo] == UNKNOWN)
+            return true;
+        int base = 2 * (pgNo * columns.length + columnOf[p.getField()]);
+        int min = bounds[base], max = bounds[base + 1];
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min <= max && !(min == v && max == v);
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Writes the map to its side file. Call only once all changes to the
+     * table have been written, as the map is tied to its current size and
+     * modification time.
+     */
+    public synchronized void save() throws IOException {
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeLong(dataFile.length());
+            dos.writeLong(dataFile.lastModified());
+            dos.writeInt(columns.length);
+            dos.writeInt(numPages);
+            for (int p = 0; p < numPages; p++) {
+                dos.writeByte(state[p]);
+                for (int j = 0; j < 2 * columns.length; j++)
+                    dos.writeInt(bounds[2 * p * columns.length + j]);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+}
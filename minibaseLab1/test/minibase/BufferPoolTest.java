@@ -0,0 +1,722 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+import minibase.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends MiniBaseTestBase {
+    private File data;
+
+    @Before public void createTable() throws Exception {
+        data = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 8, 1 << 16, null, null);
+    }
+
+    /**
+     * A HeapFile that counts its page reads, can hold up reads of one
+     * page until told to go on, and can fail to read one page.
+     */
+    private class SlowFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile int slowPage = -1;
+        volatile int failPage = -1;
+
+        SlowFile() {
+            super(data, Utility.getTupleDesc(2));
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            if (pid.pageNumber() == slowPage) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+
+        public HeapPage readPage(PageId pid, java.nio.ByteBuffer frame) {
+            // as HeapFile does when reading throws an IOException
+            if (pid.pageNumber() == failPage)
+                return null;
+            return super.readPage(pid, frame);
+        }
+    }
+
+    private SlowFile addSlowFile() {
+        SlowFile f = new SlowFile();
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static Future<Page> fetch(ExecutorService exec, final TransactionId tid, final PageId pid) {
+        return exec.submit(new Callable<Page>() {
+            public Page call() throws Exception {
+                return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+        });
+    }
+
+    /**
+     * While one page is being read, other pages are served, and threads
+     * that want the same page wait for that read instead of reading it
+     * again.
+     */
+    @Test public void readsOutsidePoolLock() throws Exception {
+        SlowFile f = addSlowFile();
+        f.slowPage = 0;
+        Database.resetBufferPool(4).setReadAhead(0);
+        ExecutorService exec = Executors.newFixedThreadPool(3);
+        try {
+            TransactionId tid = new TransactionId();
+            Future<Page> slow = fetch(exec, tid, new HeapPageId(f.getId(), 0));
+            assertTrue(f.started.await(10, TimeUnit.SECONDS));
+            Future<Page> same = fetch(exec, tid, new HeapPageId(f.getId(), 0));
+
+            // page 1 is read while page 0 is still being read
+            Page other = fetch(exec, tid, new HeapPageId(f.getId(), 1)).get(10, TimeUnit.SECONDS);
+            assertEquals(1, other.getId().pageNumber());
+            assertFalse(slow.isDone());
+
+            f.release.countDown();
+            assertSame(slow.get(10, TimeUnit.SECONDS), same.get(10, TimeUnit.SECONDS));
+            assertEquals(2, f.reads.get());
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    /**
+     * A page that can't be read fails with a DbException for the thread
+     * reading it and the threads waiting for that read, on the heap and
+     * off it, and is read again by the next request.
+     */
+    @Test public void readFailure() throws Exception {
+        SlowFile f = addSlowFile();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        f.slowPage = 0;
+        f.failPage = 0;
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            for (boolean offHeap : new boolean[] { false, true }) {
+                Database.resetBufferPool(4, new LruPolicy(), offHeap).setReadAhead(0);
+                TransactionId tid = new TransactionId();
+                Future<Page> read = fetch(exec, tid, pid);
+                Future<Page> waiting = fetch(exec, tid, pid);
+                f.release.countDown();
+                for (Future<Page> p : Arrays.asList(read, waiting)) {
+                    try {
+                        p.get(10, TimeUnit.SECONDS);
+                        fail("expected DbException");
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof DbException);
+                    }
+                }
+                f.failPage = -1;
+                assertEquals(0, Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)
+                        .getId().pageNumber());
+                Database.getBufferPool().transactionComplete(tid);
+                f.failPage = 0;
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    /**
+     * Once every page the pool holds is pinned for writing, no other page
+     * can be read until a transaction completes.
+     */
+    @Test public void fullOfWritePins() throws Exception {
+        HeapFile f = Utility.openHeapFile(2, data);
+        BufferPool pool = Database.resetBufferPool(2, new LruPolicy());
+        pool.setReadAhead(0);
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 2; i++)
+            pool.getPage(writer, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+
+        TransactionId reader = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 2);
+        try {
+            pool.getPage(reader, pid, Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        pool.transactionComplete(writer);
+        assertEquals(2, pool.getPage(reader, pid, Permissions.READ_ONLY).getId().pageNumber());
+        pool.transactionComplete(reader);
+    }
+
+    /**
+     * A page requested for writing stays in the pool until its transaction
+     * completes, even if it was not changed.
+     */
+    @Test public void writePagesStayPinned() throws Exception {
+        SlowFile f = addSlowFile();
+        Database.resetBufferPool(2, new LruPolicy()).setReadAhead(0);
+        TransactionId writer = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        Page page = Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+
+        TransactionId reader = new TransactionId();
+        for (int i = 1; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(reader, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(reader);
+        assertSame(page, Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE));
+        Database.getBufferPool().transactionComplete(writer);
+
+        // once it completes, the page can go
+        reader = new TransactionId();
+        for (int i = 1; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(reader, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        int reads = f.reads.get();
+        Database.getBufferPool().getPage(reader, pid, Permissions.READ_ONLY);
+        assertEquals(reads + 1, f.reads.get());
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /**
+     * Many threads scanning a table through a small pool all see every
+     * tuple.
+     */
+    @Test public void concurrentScans() throws Exception {
+        final HeapFile f = Utility.openHeapFile(2, data);
+        Database.resetBufferPool(3);
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            java.util.ArrayList<Future<Integer>> counts = new java.util.ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                counts.add(exec.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        TransactionId tid = new TransactionId();
+                        int n = 0;
+                        for (int round = 0; round < 5; round++) {
+                            DbFileIterator it = f.iterator(tid);
+                            it.open();
+                            while (it.hasNext()) {
+                                it.next();
+                                n++;
+                            }
+                            it.close();
+                        }
+                        Database.getBufferPool().transactionComplete(tid);
+                        return n;
+                    }
+                }));
+            }
+            for (Future<Integer> n : counts)
+                assertEquals(5 * 504 * 8, (int) n.get(60, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static int scan(TransactionId tid, HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static void readPages(SlowFile f, int pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < pages; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan of a table larger than the pool reads it through a small ring
+     * of frames and leaves the pages already cached alone; without the ring
+     * it pushes them all out.
+     */
+    @Test public void scanRingKeepsHotPages() throws Exception {
+        SlowFile hot = addSlowFile();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        Database.resetBufferPool(16, new LruPolicy());
+        readPages(hot, 4);
+        assertEquals(4, hot.reads.get());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(504 * 40, scan(tid, big));
+        Database.getBufferPool().transactionComplete(tid);
+        readPages(hot, 4);
+        assertEquals(4, hot.reads.get());
+
+        Database.getBufferPool().setRingPages(0);
+        tid = new TransactionId();
+        assertEquals(504 * 40, scan(tid, big));
+        Database.getBufferPool().transactionComplete(tid);
+        readPages(hot, 4);
+        assertEquals(8, hot.reads.get());
+    }
+
+    private static int count(HeapPage page) {
+        int n = 0;
+        for (java.util.Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    private static int tuplesOnDisk(File f, HeapPageId pid) {
+        return count((HeapPage) new HeapFile(f, Utility.getTupleDesc(2)).readPage(pid));
+    }
+
+    private static void insert(TransactionId tid, HeapFile f, int v) throws Exception {
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { v, v }));
+    }
+
+    /**
+     * With a background writer, a commit only logs its pages; the writer
+     * writes them later, and an abort in between keeps the committed
+     * changes.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        HeapFile f = Utility.openHeapFile(2, small);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        BufferPool pool = Database.getBufferPool();
+        // never busy enough to write
+        pool.startWriter(1.0, 1000);
+        try {
+            TransactionId tid = new TransactionId();
+            insert(tid, f, -1);
+            pool.transactionComplete(tid);
+            assertEquals(1, pool.getUnwrittenPages());
+            assertEquals(100, tuplesOnDisk(small, pid));
+
+            // the committed insert survives an abort of a later change
+            tid = new TransactionId();
+            insert(tid, f, -2);
+            pool.transactionComplete(tid, false);
+            tid = new TransactionId();
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(101, count(page));
+            pool.transactionComplete(tid);
+
+            pool.startWriter(0, 1000);
+            for (int i = 0; i < 100 && pool.getUnwrittenPages() > 0; i++)
+                Thread.sleep(50);
+            assertEquals(0, pool.getUnwrittenPages());
+            assertEquals(101, tuplesOnDisk(small, pid));
+        } finally {
+            pool.stopWriter();
+        }
+    }
+
+    /**
+     * Stopping the writer while it writes a page lets the write finish and
+     * leaves the file open.
+     */
+    @Test public void stopWriterDuringWrite() throws Exception {
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        HeapFile f = new HeapFile(small, Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+
+            public void writePage(Page page) throws IOException {
+                if (Thread.currentThread().getName().equals("BufferPool-writer")) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // as if interrupted in the middle of the write
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        final BufferPool pool = Database.getBufferPool();
+        pool.startWriter(0, 1000);
+        TransactionId tid = new TransactionId();
+        insert(tid, f, -1);
+        pool.transactionComplete(tid);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        Thread stopper = new Thread() {
+            public void run() {
+                pool.stopWriter();
+            }
+        };
+        stopper.start();
+        stopper.join(100);
+        release.countDown();
+        stopper.join(10000);
+        assertFalse(stopper.isAlive());
+
+        assertEquals(101, count((HeapPage) f.readPage(pid)));
+        tid = new TransactionId();
+        insert(tid, f, -2);
+        pool.transactionComplete(tid);
+        assertEquals(102, tuplesOnDisk(small, pid));
+    }
+
+    /**
+     * A page the writer is writing can be written by a load that needs its
+     * frame at the same time; each holds a lock of its own, so the page
+     * stays locked until both are done, and it is counted as written once.
+     */
+    @Test public void concurrentWritesOfOnePage() throws Exception {
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        HeapFile f = new HeapFile(small, Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+
+            public void writePage(Page page) throws IOException {
+                if (Thread.currentThread().getName().equals("BufferPool-writer")) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        HeapFile other = Utility.openHeapFile(2,
+                SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null));
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        BufferPool pool = Database.resetBufferPool(1, new LruPolicy());
+        pool.setReadAhead(0);
+        pool.startWriter(0, 1000);
+        try {
+            TransactionId tid = new TransactionId();
+            insert(tid, f, -1);
+            pool.transactionComplete(tid);
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // the pool is full; this load writes the page itself
+            tid = new TransactionId();
+            pool.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+            pool.transactionComplete(tid);
+            assertEquals(0, pool.getUnwrittenPages());
+
+            TransactionId writer = new TransactionId();
+            TestUtil.LockGrabber t = new TestUtil.LockGrabber(writer, pid, Permissions.READ_WRITE);
+            t.start();
+            t.join(100);
+            assertFalse(t.acquired());
+            release.countDown();
+            t.join(10000);
+            assertTrue(t.acquired());
+            pool.transactionComplete(writer);
+            assertEquals(0, pool.getUnwrittenPages());
+        } finally {
+            release.countDown();
+            pool.stopWriter();
+        }
+    }
+
+    /**
+     * A page with unwritten committed changes is written when the pool
+     * needs its frame.
+     */
+    @Test public void evictionWritesCommittedPages() throws Exception {
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        HeapFile f = Utility.openHeapFile(2, small);
+        BufferPool pool = Database.resetBufferPool(1);
+        pool.setReadAhead(0);
+        pool.startWriter(1.0, 1000);
+        try {
+            TransactionId tid = new TransactionId();
+            insert(tid, f, -1);
+            pool.transactionComplete(tid);
+            assertEquals(1, pool.getUnwrittenPages());
+
+            HeapFile other = Utility.openHeapFile(2, data);
+            tid = new TransactionId();
+            pool.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+            pool.transactionComplete(tid);
+            assertEquals(0, pool.getUnwrittenPages());
+            assertEquals(101, tuplesOnDisk(small, new HeapPageId(f.getId(), 0)));
+        } finally {
+            pool.stopWriter();
+        }
+    }
+
+    /**
+     * A commit writes the pages it changed in one call per file, in page
+     * order; runs of adjacent pages and the pages between runs are right on
+     * disk afterwards.
+     */
+    @Test public void commitWritesInFileOrder() throws Exception {
+        final List<Integer> written = new ArrayList<Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+        HeapFile f = new HeapFile(data, Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+
+            public void writePages(List<Page> pages) throws IOException {
+                calls.incrementAndGet();
+                for (Page p : pages)
+                    written.add(p.getId().pageNumber());
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BufferPool pool = Database.getBufferPool();
+        pool.setReadAhead(0);
+
+        int[] changed = { 6, 1, 0, 7, 3, 2 };
+        TransactionId tid = new TransactionId();
+        for (int pgNo : changed) {
+            HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+            pool.deleteTuple(tid, page.iterator().next());
+        }
+        pool.transactionComplete(tid);
+
+        assertEquals(1, calls.get());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 6, 7), written);
+        for (int pgNo = 0; pgNo < 8; pgNo++) {
+            boolean wasChanged = pgNo != 4 && pgNo != 5;
+            assertEquals(wasChanged ? 503 : 504, tuplesOnDisk(data, new HeapPageId(f.getId(), pgNo)));
+        }
+    }
+
+    /**
+     * Pages of an off-heap pool view arena frames. A page whose frame is
+     * reused keeps its tuples, and pages are changed, written, and rolled
+     * back as on the heap.
+     */
+    @Test public void offHeapFrames() throws Exception {
+        HeapFile f = Utility.openHeapFile(2, data);
+        BufferPool pool = Database.resetBufferPool(4, new LruPolicy(), true);
+        pool.setReadAhead(0);
+        assertTrue(pool.isOffHeap());
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+        java.util.Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        // the frame of page 0 goes to another page
+        for (int i = 1; i < 8; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        java.util.Iterator<Tuple> expected = ((HeapPage) f.readPage(pid)).iterator();
+        assertEquals(SystemTestUtil.tupleToList(expected.next()), SystemTestUtil.tupleToList(first));
+        while (expected.hasNext())
+            assertEquals(SystemTestUtil.tupleToList(expected.next()), SystemTestUtil.tupleToList(it.next()));
+        assertFalse(it.hasNext());
+        pool.transactionComplete(tid);
+
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        HeapFile g = Utility.openHeapFile(2, small);
+        HeapPageId gid = new HeapPageId(g.getId(), 0);
+        tid = new TransactionId();
+        insert(tid, g, -1);
+        pool.transactionComplete(tid);
+        assertEquals(101, tuplesOnDisk(small, gid));
+        tid = new TransactionId();
+        insert(tid, g, -2);
+        pool.transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertEquals(101, count((HeapPage) pool.getPage(tid, gid, Permissions.READ_ONLY)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * The frame of an unchanged page is reused without copying the page
+     * out of it; the page is read again only if its tuples are read later.
+     */
+    @Test public void offHeapFramesReusedWithoutCopy() throws Exception {
+        SlowFile f = addSlowFile();
+        BufferPool pool = Database.resetBufferPool(4, new LruPolicy(), true);
+        pool.setReadAhead(0);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+        Tuple first = page.iterator().next();
+        for (int i = 1; i < 8; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, f.reads.get());
+
+        HeapPage expected = (HeapPage) new HeapFile(data, Utility.getTupleDesc(2)).readPage(pid);
+        assertEquals(SystemTestUtil.tupleToList(expected.iterator().next()), SystemTestUtil.tupleToList(first));
+        assertEquals(count(expected), count(page));
+        assertEquals(1, f.reads.get());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Hits, misses, reads, writes and evictions are counted per pool and
+     * table, can be read through JMX, and are printed by SHOW BUFFERPOOL.
+     */
+    @Test public void metrics() throws Exception {
+        SlowFile f = addSlowFile();
+        String name = Database.getCatalog().getTableName(f.getId());
+        BufferPool pool = Database.resetBufferPool(2, new LruPolicy());
+        pool.setReadAhead(0);
+        BufferPoolMetrics m = pool.getMetrics();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+        assertEquals(1, m.getHits());
+        assertEquals(3, m.getMisses());
+        assertEquals(0.25, m.getHitRatio(), 1e-9);
+        assertEquals(3, m.getPagesRead());
+        assertEquals(1, m.getEvictions());
+        assertEquals(Long.valueOf(3), m.getTableMisses().get(name));
+
+        ObjectName bean = new ObjectName(BufferPoolMetrics.OBJECT_NAME);
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(bean, "Misses"));
+
+        // a dirty page can't be evicted, so the pool has no room
+        pool = Database.resetBufferPool(1, new LruPolicy());
+        m = pool.getMetrics();
+        tid = new TransactionId();
+        insert(tid, f, -1);
+        assertEquals(1, m.getDirtyPages());
+        assertEquals(Integer.valueOf(1), m.getTableDirtyPages().get(name));
+        try {
+            pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(m.getEvictionFailures() > 0);
+        pool.transactionComplete(tid);
+        assertEquals(0, m.getDirtyPages());
+        assertEquals(1, m.getPagesWritten());
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream shown = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(shown));
+        try {
+            assertTrue(new Parser().handleShowStatement("show  BufferPool ;"));
+            assertFalse(new Parser().handleShowStatement("select * from t;"));
+        } finally {
+            System.setOut(out);
+        }
+        assertTrue(shown.toString().contains(name));
+
+        m.reset();
+        assertEquals(0, m.getMisses());
+        assertEquals(0, m.getPagesWritten());
+    }
+
+    /**
+     * A pool shrinks in the background down to its new size but keeps
+     * dirty pages and locks, and a grown pool holds more pages; an off-heap
+     * pool's arena grows with it.
+     */
+    @Test public void resize() throws Exception {
+        HeapFile f = Utility.openHeapFile(2, data);
+        BufferPool pool = Database.resetBufferPool(8, new LruPolicy(), true);
+        pool.setReadAhead(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        TransactionId writer = new TransactionId();
+        HeapPageId dirty = new HeapPageId(f.getId(), 3);
+        HeapPage page = (HeapPage) pool.getPage(writer, dirty, Permissions.READ_WRITE);
+        pool.deleteTuple(writer, page.iterator().next());
+
+        pool.resize(2);
+        for (int i = 0; i < 100 && pool.getCachedPages() > 2; i++)
+            Thread.sleep(20);
+        assertEquals(2, pool.getCachedPages());
+        assertEquals(1, pool.getMetrics().getDirtyPages());
+        assertTrue(pool.holdsLock(writer, dirty));
+        pool.transactionComplete(writer);
+        assertEquals(503, tuplesOnDisk(data, dirty));
+
+        pool.resize(16);
+        for (int round = 0; round < 2; round++) {
+            pool.getMetrics().reset();
+            tid = new TransactionId();
+            for (int i = 0; i < 8; i++)
+                pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            pool.transactionComplete(tid);
+        }
+        assertEquals(0, pool.getMetrics().getMisses());
+        assertEquals(8, pool.getCachedPages());
+    }
+
+    /**
+     * The pages saved from one pool are read back into another in the
+     * background, until it is full, so that they are hits.
+     */
+    @Test public void warmUp() throws Exception {
+        SlowFile f = addSlowFile();
+        BufferPool pool = Database.resetBufferPool(8);
+        pool.setReadAhead(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 6; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        File saved = File.createTempFile("bufferpool", ".warm");
+        saved.deleteOnExit();
+        pool.saveResidentPages(saved);
+
+        pool = Database.resetBufferPool(8);
+        f.reads.set(0);
+        pool.warmUp(saved).join();
+        assertFalse(saved.exists());
+        assertEquals(6, f.reads.get());
+        assertEquals(6, pool.getCachedPages());
+        tid = new TransactionId();
+        for (int i = 0; i < 6; i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getMetrics().getMisses());
+
+        // a smaller pool takes what fits and evicts nothing for the rest
+        pool.saveResidentPages(saved);
+        pool = Database.resetBufferPool(4);
+        pool.warmUp(saved).join();
+        assertEquals(4, pool.getCachedPages());
+        assertEquals(0, pool.getMetrics().getEvictions());
+        assertNull(pool.warmUp(saved));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -1,7 +1,11 @@
 package minibase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +72,24 @@ public class CatalogTest extends MiniBaseTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() table annotations
+     */
+    @Test public void loadSchemaMapped() throws Exception {
+        File catalogFile = File.createTempFile("catalog", ".txt");
+        catalogFile.deleteOnExit();
+        FileWriter w = new FileWriter(catalogFile);
+        w.write("plain (a int, b int)\n");
+        w.write("reports (a int pk, b string) mmap\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertFalse(((HeapFile) c.getDbFile(c.getTableId("plain"))).isMapped());
+        assertTrue(((HeapFile) c.getDbFile(c.getTableId("reports"))).isMapped());
+        assertEquals("a", c.getPrimaryKey(c.getTableId("reports")));
+    }
+
     /**
      * JUnit suite target
      */
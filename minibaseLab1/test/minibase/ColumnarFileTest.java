@@ -0,0 +1,110 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+import minibase.systemtest.SystemTestUtil;
+
+public class ColumnarFileTest extends MiniBaseTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * A heap file converted to a columnar file scans back the same tuples.
+     */
+    @Test public void fromHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(4, 3000, 1 << 16, null, tuples);
+        TupleDesc td = Utility.getTupleDesc(4);
+
+        ColumnarFile cf = ColumnarFile.fromHeapFile(heap, td, tempFile());
+        assertEquals(3 * cf.getPagesPerSegment(), cf.numPages());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * A scan of one column only touches that column's pages.
+     */
+    @Test public void projectedScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(4, 100, 1 << 16, null, tuples);
+        ColumnarFile cf = ColumnarFile.fromHeapFile(heap, Utility.getTupleDesc(4), tempFile());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, cf.getId(), "", new int[] { 2 });
+        ss.open();
+        int i = 0;
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            assertNull(t.getField(0));
+            assertEquals(new IntField(tuples.get(i).get(2)), t.getField(2));
+            i++;
+        }
+        ss.close();
+        assertEquals(100, i);
+
+        // page 0 is the row bitmap, then one page per int column
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(cf.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(cf.getId(), 1)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(cf.getId(), 3)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Insert and Delete work on a ColumnarFile, and freed rows are reused.
+     */
+    @Test public void insertDelete() throws Exception {
+        ColumnarFile cf = new ColumnarFile(tempFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1500; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(i, 2));
+            if (i % 3 != 0)
+                expected.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(i, 2)));
+        }
+        assertEquals(2 * cf.getPagesPerSegment(), cf.numPages());
+
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                victims.add(t);
+        }
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        SystemTestUtil.matchTuples(cf, tid, expected);
+
+        // the freed rows of the first segment are filled before the second
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        assertEquals(new HeapPageId(cf.getId(), 0), t.getRecordId().getPageId());
+        assertEquals(2 * cf.getPagesPerSegment(), cf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+import minibase.systemtest.SystemTestUtil;
+
+public class DeadlockTest extends MiniBaseTestBase {
+    private static final int PAGES = 4;
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private TransactionId tid1, tid2;
+
+    @Before public void setUp() throws Exception {
+        // 2 int columns => 504 tuples per page
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    private PageId page(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(t.acquired());
+        return t;
+    }
+
+    private void assertAborted(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        try {
+            bp.getPage(tid, pid, perm);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * Closing a cycle of two aborts the younger transaction, here the one
+     * whose request closed it, and the other goes on.
+     */
+    @Test public void twoWayCycle() throws Exception {
+        bp.getPage(tid1, page(0), Permissions.READ_WRITE);
+        bp.getPage(tid2, page(1), Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid1, page(1), Permissions.READ_WRITE);
+
+        assertAborted(tid2, page(0), Permissions.READ_WRITE);
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertNull(t.getError());
+    }
+
+    /**
+     * The victim is the youngest transaction of the cycle, even if it was
+     * already waiting rather than closing the cycle.
+     */
+    @Test public void threeWayCycle() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid1, page(0), Permissions.READ_WRITE);
+        bp.getPage(tid2, page(1), Permissions.READ_WRITE);
+        bp.getPage(tid3, page(2), Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, page(2), Permissions.READ_WRITE);
+        TestUtil.LockGrabber t3 = grab(tid3, page(0), Permissions.READ_WRITE);
+
+        // the grabber of tid3 aborts it when told, so tid2 gets page 2,
+        // and tid1 waits for tid2
+        TestUtil.LockGrabber t1 = new TestUtil.LockGrabber(tid1, page(1), Permissions.READ_WRITE);
+        t1.start();
+        t3.join(TIMEOUT * 10);
+        assertTrue(t3.getError() instanceof TransactionAbortedException);
+        t2.join(TIMEOUT * 10);
+        assertTrue(t2.acquired());
+        assertFalse(t1.acquired());
+
+        bp.transactionComplete(tid2);
+        t1.join(TIMEOUT * 10);
+        assertTrue(t1.acquired());
+        assertNull(t1.getError());
+    }
+
+    /**
+     * Two readers that both upgrade wait for each other.
+     */
+    @Test public void upgradeCycle() throws Exception {
+        bp.getPage(tid1, page(0), Permissions.READ_ONLY);
+        bp.getPage(tid2, page(0), Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid1, page(0), Permissions.READ_WRITE);
+
+        assertAborted(tid2, page(0), Permissions.READ_WRITE);
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+    }
+
+    /**
+     * A long wait for a lock that will be released is not a deadlock.
+     */
+    @Test public void longWaitIsNoDeadlock() throws Exception {
+        bp.getPage(tid1, page(0), Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid2, page(0), Permissions.READ_WRITE);
+        Thread.sleep(5 * TIMEOUT);
+        assertNull(t.getError());
+        bp.transactionComplete(tid1);
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+    }
+
+    /**
+     * Threads run transactions that lock two pages in random order, so
+     * cycles form all the time. Every deadlock is broken by aborting one
+     * transaction, which is retried; all transactions commit, and the
+     * throughput and abort rate are reported.
+     */
+    @Test public void throughputUnderLockCycles() throws Exception {
+        final int threads = 8;
+        final int perThread = 100;
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final Random rand = new Random(i);
+            Thread w = new Thread() {
+                public void run() {
+                    try {
+                        for (int done = 0; done < perThread; ) {
+                            int a = rand.nextInt(PAGES);
+                            int b = (a + 1 + rand.nextInt(PAGES - 1)) % PAGES;
+                            TransactionId tid = new TransactionId();
+                            try {
+                                bp.getPage(tid, page(a), Permissions.READ_WRITE);
+                                Thread.yield();
+                                bp.getPage(tid, page(b), Permissions.READ_WRITE);
+                                bp.transactionComplete(tid);
+                                commits.incrementAndGet();
+                                done++;
+                            } catch (TransactionAbortedException e) {
+                                bp.transactionComplete(tid, false);
+                                aborts.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers)
+            w.join(60000);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertNull(error.get());
+        assertEquals(threads * perThread, commits.get());
+        double abortRate = (double) aborts.get() / (commits.get() + aborts.get());
+        System.out.printf("%d commits in %.2f s (%.0f/s), %d aborts (%.1f%%)%n", commits.get(), seconds,
+                commits.get() / seconds, aborts.get(), 100 * abortRate);
+        assertTrue(aborts.get() > 0);
+        assertTrue(abortRate < 0.9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockTest.class);
+    }
+}
@@ -0,0 +1,55 @@
+package minibase;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Measures HeapFileEncoder.convert against the original char-at-a-time
+ * encoder on a generated text file.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapFileEncoderBenchmark [-Dbench.args="rows columns"]
+ */
+public class HeapFileEncoderBenchmark {
+
+    static double rowsPerSec(long rows, long start) {
+        return rows / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        File in = File.createTempFile("encoderbench", ".txt");
+        File out = File.createTempFile("encoderbench", ".dat");
+        in.deleteOnExit();
+        out.deleteOnExit();
+        Random r = new Random(1);
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                if (j > 0)
+                    w.write(',');
+                w.write(Integer.toString(r.nextInt()));
+            }
+            w.write('\n');
+        }
+        w.close();
+        Type[] types = new Type[columns];
+        for (int j = 0; j < columns; j++)
+            types[j] = Type.INT_TYPE;
+        System.out.println(rows + " rows of " + columns + " int columns, "
+                + in.length() / (1 << 20) + " MB of text, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+
+        // warm up both paths (and the OS page cache) before timing
+        HeapFileEncoder.convertCharwise(in, out, BufferPool.PAGE_SIZE, columns, types, ',');
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, columns, types, ',');
+
+        long start = System.nanoTime();
+        long n = HeapFileEncoder.convertCharwise(in, out, BufferPool.PAGE_SIZE, columns, types, ',');
+        System.out.printf("char at a time   : %12.0f rows/s%n", rowsPerSec(n, start));
+        start = System.nanoTime();
+        n = HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, columns, types, ',');
+        System.out.printf("parallel blocks  : %12.0f rows/s%n", rowsPerSec(n, start));
+    }
+}
@@ -0,0 +1,104 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+
+public class HeapFileEncoderTest extends MiniBaseTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File write(String text) throws IOException {
+        File f = tempFile(".txt");
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    /** Converts in with both encoders and checks they wrote the same bytes. */
+    private static long assertSameOutput(File in, Type[] types, char sep) throws IOException {
+        File expected = tempFile(".dat");
+        File actual = tempFile(".dat");
+        long rows = HeapFileEncoder.convertCharwise(in, expected, BufferPool.PAGE_SIZE,
+                types.length, types, sep);
+        assertEquals(rows, HeapFileEncoder.convert(in, actual, BufferPool.PAGE_SIZE,
+                types.length, types, sep));
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+        return rows;
+    }
+
+    /**
+     * Input large enough to be split into several blocks encodes to the
+     * same pages as the char-at-a-time encoder.
+     */
+    @Test public void sameAsCharwise() throws Exception {
+        File in = tempFile(".txt");
+        Random r = new Random(42);
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < 400000; i++) {
+            w.write(r.nextInt() + "," + i + "," + (-r.nextInt(1000)));
+            w.write(i % 1000 == 0 ? "\r\n\n" : "\n");
+        }
+        w.close();
+        assertEquals(400000, assertSameOutput(in, new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE }, ','));
+    }
+
+    /**
+     * Padding, long and non-ASCII strings and other separators are handled
+     * the same way too.
+     */
+    @Test public void stringsAndWhitespace() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 2 * Type.STRING_LEN; i++)
+            longString.append((char) ('a' + i % 26));
+        File in = write("1| hello |  -7 \n\r\n+2|" + longString + "|0\r\n3|héllo世|2147483647\n"
+                + "4||-2147483648\n\n");
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        assertEquals(4, assertSameOutput(in, types, '|'));
+    }
+
+    /**
+     * An empty input still gives one empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        assertEquals(0, assertSameOutput(write("\n\r\n"), new Type[] { Type.INT_TYPE }, ','));
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(write(""), out, BufferPool.PAGE_SIZE, 1);
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /**
+     * Lines with a bad value or the wrong number of fields are rejected.
+     */
+    @Test public void malformedLines() throws Exception {
+        String[] bad = { "1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "99999999999,1\n" };
+        for (String text : bad) {
+            try {
+                HeapFileEncoder.convert(write(text), tempFile(".dat"), BufferPool.PAGE_SIZE, 2);
+                fail("accepted " + text);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
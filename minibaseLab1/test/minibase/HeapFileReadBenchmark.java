@@ -0,0 +1,99 @@
+package minibase;
+
+import minibase.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Measures raw page-read throughput of HeapFile.readPage, through the
+ * shared channel and through memory mappings, against the old
+ * open/seek/read/close path that opened a RandomAccessFile per page.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapFileReadBenchmark [-Dbench.args="pages rounds"]
+ */
+public class HeapFileReadBenchmark {
+
+    /** Reads a page the way HeapFile used to: one file open per page. */
+    static Page readPageReopening(File file, HeapPageId pid) throws IOException {
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        f.seek((long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+        f.read(buf);
+        f.close();
+        return new HeapPage(pid, buf);
+    }
+
+    static double reopeningPagesPerSec(HeapFile hf, int rounds) throws IOException {
+        int n = hf.numPages();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (int i = 0; i < n; i++)
+                readPageReopening(hf.getFile(), new HeapPageId(hf.getId(), i));
+        return (double) n * rounds / ((System.nanoTime() - start) / 1e9);
+    }
+
+    static double channelPagesPerSec(HeapFile hf, int rounds) {
+        int n = hf.numPages();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (int i = 0; i < n; i++)
+                hf.readPage(new HeapPageId(hf.getId(), i));
+        return (double) n * rounds / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** I/O only, no page decoding: one RandomAccessFile per page. */
+    static double rawReopeningPagesPerSec(File file, int n, int rounds) throws IOException {
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (int i = 0; i < n; i++) {
+                RandomAccessFile f = new RandomAccessFile(file, "r");
+                f.seek((long) i * BufferPool.PAGE_SIZE);
+                f.read(buf);
+                f.close();
+            }
+        return (double) n * rounds / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /** I/O only, no page decoding: positional reads on one open channel. */
+    static double rawChannelPagesPerSec(File file, int n, int rounds) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        FileChannel ch = new RandomAccessFile(file, "r").getChannel();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (int i = 0; i < n; i++) {
+                buf.clear();
+                ch.read(buf, (long) i * BufferPool.PAGE_SIZE);
+            }
+        double result = (double) n * rounds / ((System.nanoTime() - start) / 1e9);
+        ch.close();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // 2 int columns => 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        System.out.println("table of " + hf.numPages() + " pages, " + rounds + " rounds");
+
+        // warm up both paths (and the OS page cache) before timing
+        reopeningPagesPerSec(hf, 1);
+        channelPagesPerSec(hf, 1);
+
+        System.out.printf("readPage, reopen per page : %12.0f pages/s%n", reopeningPagesPerSec(hf, rounds));
+        System.out.printf("readPage, shared channel  : %12.0f pages/s%n", channelPagesPerSec(hf, rounds));
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc(), true);
+        channelPagesPerSec(mapped, 1);
+        System.out.printf("readPage, mapped          : %12.0f pages/s%n", channelPagesPerSec(mapped, rounds));
+        mapped.close();
+        System.out.printf("raw I/O, reopen per page  : %12.0f pages/s%n",
+                rawReopeningPagesPerSec(hf.getFile(), hf.numPages(), rounds));
+        System.out.printf("raw I/O, shared channel   : %12.0f pages/s%n",
+                rawChannelPagesPerSec(hf.getFile(), hf.numPages(), rounds));
+        hf.close();
+    }
+}
@@ -3,8 +3,12 @@ package minibase;
 import minibase.systemtest.MiniBaseTestBase;
 import minibase.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -77,6 +81,113 @@ public class HeapFileReadTest extends MiniBaseTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): the file reopens on the next read
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+
+        // closing twice is harmless
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMapped());
+        HeapPage actual = (HeapPage) mapped.readPage(pid);
+
+        assertEquals(expected.getNumEmptySlots(), actual.getNumEmptySlots());
+        Iterator<Tuple> it = actual.iterator();
+        for (Iterator<Tuple> e = expected.iterator(); e.hasNext(); )
+            assertTrue(TestUtil.compareTuples(e.next(), it.next()));
+        assertFalse(it.hasNext());
+        mapped.close();
+    }
+
+    /**
+     * A page read through a mapping is copied when it first changes, so
+     * its tuples keep their values once it has been written back.
+     */
+    @Test
+    public void mappedPageCopiesOnWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Tuple expected = ((HeapPage) hf.readPage(pid)).iterator().next();
+
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        page.deleteTuple(first);
+        mapped.writePage(page);
+
+        assertTrue(TestUtil.compareTuples(expected, first));
+        assertEquals(page.getBeforeImage().getNumEmptySlots() + 1, page.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(second, ((HeapPage) mapped.readPage(pid)).iterator().next()));
+        mapped.close();
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a file that can't be written
+     */
+    @Test
+    public void readPageReadOnlyFile() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        hf.close();
+
+        assertTrue(hf.getFile().setWritable(false));
+        try {
+            // a user that can write any file, like root, can't test this
+            Assume.assumeTrue(!hf.getFile().canWrite());
+            HeapFile readOnly = new HeapFile(hf.getFile(), td);
+            HeapPage actual = (HeapPage) readOnly.readPage(pid);
+            assertEquals(expected.getNumEmptySlots(), actual.getNumEmptySlots());
+            readOnly.close();
+        } finally {
+            hf.getFile().setWritable(true);
+        }
+    }
+
+    /**
+     * Reading a file that doesn't exist fails without creating it; writing
+     * creates it.
+     */
+    @Test
+    public void readMissingFile() throws Exception {
+        File missing = new File(hf.getFile().getPath() + ".missing");
+        missing.deleteOnExit();
+        PageChannel channel = new PageChannel(missing);
+        try {
+            channel.read(ByteBuffer.allocate(BufferPool.PAGE_SIZE), 0);
+            fail("expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertFalse(missing.exists());
+
+        channel.write(ByteBuffer.wrap(HeapPage.createEmptyPageData()), 0);
+        assertEquals(BufferPool.PAGE_SIZE, missing.length());
+        // past the end of the file
+        assertEquals(0, channel.read(ByteBuffer.allocate(BufferPool.PAGE_SIZE), BufferPool.PAGE_SIZE));
+        channel.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +232,44 @@ public class HeapFileReadTest extends MiniBaseTestBase {
         it.close();
     }
 
+    /**
+     * Once a scan moves on to its second page, the following pages are read
+     * into the buffer pool in the background.
+     */
+    @Test
+    public void iteratorReadsAhead() throws Exception {
+        final Thread scanner = Thread.currentThread();
+        final Set<Integer> readAhead = Collections.synchronizedSet(new HashSet<Integer>());
+        java.io.File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1 << 16, null, null);
+        HeapFile counting = new HeapFile(f, td) {
+            private static final long serialVersionUID = 1L;
+
+            public Page readPage(PageId pid) {
+                if (Thread.currentThread() != scanner)
+                    readAhead.add(pid.pageNumber());
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counting, SystemTestUtil.getUUID());
+        Database.getBufferPool().setReadAhead(4);
+
+        DbFileIterator it = counting.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            // give the prefetcher time to get ahead once the scan is on page 1
+            if (++count == 505)
+                Thread.sleep(200);
+        }
+        it.close();
+
+        assertEquals(504 * 20, count);
+        assertTrue(readAhead.containsAll(Arrays.asList(2, 3, 4, 5)));
+        assertFalse(readAhead.contains(0));
+        assertFalse(readAhead.contains(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -5,6 +5,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import java.io.File;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -43,6 +44,110 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple(): a slot freed on an early page is
+     * found through the free-space map instead of appending a page.
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        for (int i = 0; i < 1009; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        assertEquals(2, empty.getFreeSpaceMap().nextFreePage(0));
+
+        HeapPageId p0 = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, p0, Permissions.READ_WRITE);
+        empty.deleteTuple(tid, page.iterator().next());
+        assertEquals(0, empty.getFreeSpaceMap().nextFreePage(0));
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(p0, t.getRecordId().getPageId());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * The free-space map is saved on close, loaded again on next use, and
+     * rebuilt from the page headers when its side file is missing.
+     */
+    @Test public void freeSpaceMapSavedAndRebuilt() throws Exception {
+        for (int i = 0; i < 1009; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        FreeSpaceMap before = empty.getFreeSpaceMap();
+        empty.close();
+
+        File side = new File(empty.getFile().getPath() + ".fsm");
+        assertTrue(side.exists());
+        assertEquals(2, FreeSpaceMap.load(side).nextFreePage(0));
+        assertNotSame(before, empty.getFreeSpaceMap());
+        assertEquals(2, empty.getFreeSpaceMap().nextFreePage(0));
+        empty.close();
+
+        assertTrue(side.delete());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(3, reopened.getFreeSpaceMap().numPages());
+        assertEquals(2, reopened.getFreeSpaceMap().nextFreePage(0));
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() on a memory-mapped HeapFile: pages
+     * appended by the insert must be visible through the mapping.
+     */
+    @Test public void addTupleMapped() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped);
+
+        for (int i = 0; i < 1009; ++i)
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(3, mapped.numPages());
+
+        Database.getBufferPool().flushAllPages();
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(503, page.getNumEmptySlots());
+        mapped.close();
+    }
+
+    /**
+     * Concurrent inserts that each append a page get pages of their own,
+     * so no tuple is lost.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final int threads = 4, inserts = 300;
+        Thread[] workers = new Thread[threads];
+        final Exception[] errors = new Exception[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < inserts; j++) {
+                            TransactionId t = new TransactionId();
+                            Database.getBufferPool().insertTuple(t, empty.getId(),
+                                    Utility.getHeapTuple(j, 2));
+                            Database.getBufferPool().transactionComplete(t);
+                        }
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        for (Exception e : errors)
+            assertNull(e);
+
+        Database.getBufferPool().flushAllPages();
+        int count = 0;
+        for (int i = 0; i < empty.numPages(); i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            count += page.numSlots - page.getNumEmptySlots();
+        }
+        assertEquals(threads * inserts, count);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,139 @@
+package minibase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Measures the decode/encode round trip of a full HeapPage: build the page
+ * from bytes, read every field, replace one tuple, and
+ * serialize it again with getPageData. The old stream-based codec (eager
+ * DataInputStream decode, DataOutputStream encode, before image taken by
+ * re-encoding) is reproduced here for comparison.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapPageCodecBenchmark [-Dbench.args="iterations"]
+ */
+public class HeapPageCodecBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    /** Decodes every slot eagerly, the way HeapPage used to. */
+    static Tuple[] legacyDecode(HeapPageId pid, byte[] data, int headerLen, int numSlots)
+            throws Exception {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] header = new byte[headerLen];
+        dis.readFully(header);
+        Tuple[] tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                dis.skipBytes(TD.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(TD);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < TD.numFields(); j++)
+                t.setField(j, TD.getFieldType(j).parse(dis));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    /** Encodes through a DataOutputStream, the way HeapPage used to. */
+    static byte[] legacyEncode(byte[] header, Tuple[] tuples) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (byte b : header)
+            dos.writeByte(b);
+        for (Tuple t : tuples) {
+            if (t == null) {
+                for (int j = 0; j < TD.getSize(); j++)
+                    dos.writeByte(0);
+                continue;
+            }
+            for (int j = 0; j < TD.numFields(); j++)
+                t.getField(j).serialize(dos);
+        }
+        int zerolen = BufferPool.PAGE_SIZE - (header.length + TD.getSize() * tuples.length);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    static Tuple copy(Tuple t) {
+        Tuple c = new Tuple(TD);
+        for (int j = 0; j < TD.numFields(); j++)
+            c.setField(j, t.getField(j));
+        return c;
+    }
+
+    static long readAllFields(Iterator<Tuple> it) {
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int j = 0; j < TD.numFields(); j++)
+                sum += t.getField(j).hashCode();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, TD), "bench");
+        HeapPageId pid = new HeapPageId(-1, 0);
+
+        // a full page of tuples
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; full.getNumEmptySlots() > 0; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("customer-" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(-i));
+            full.insertTuple(t);
+        }
+        byte[] bytes = full.getPageData().clone();
+        int numSlots = full.numSlots;
+        int headerLen = full.header.length;
+        System.out.println(numSlots + " tuples per page, " + iterations + " iterations");
+
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+
+            long start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                Tuple[] tuples = legacyDecode(pid, bytes, headerLen, numSlots);
+                byte[] header = Arrays.copyOf(bytes, headerLen);
+                legacyEncode(header, tuples); // old before image
+                for (Tuple t : tuples)
+                    for (int j = 0; j < TD.numFields(); j++)
+                        sink += t.getField(j).hashCode();
+                tuples[0] = copy(tuples[0]);
+                sink += legacyEncode(header, tuples).length;
+            }
+            double legacy = iterations / ((System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                HeapPage page = new HeapPage(pid, bytes);
+                sink += readAllFields(page.iterator());
+                Tuple first = page.iterator().next();
+                page.deleteTuple(first);
+                page.insertTuple(copy(first));
+                sink += page.getPageData().length;
+            }
+            double current = iterations / ((System.nanoTime() - start) / 1e9);
+
+            System.out.printf("round %d: stream codec %10.0f pages/s, buffer codec %10.0f pages/s  (%d)%n",
+                    round, legacy, current, sink & 1);
+        }
+
+        // sanity check: both encoders agree
+        HeapPage page = new HeapPage(pid, bytes);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(copy(first));
+        Tuple[] tuples = legacyDecode(pid, page.getPageData(), headerLen, numSlots);
+        if (!Arrays.equals(page.getPageData(), legacyEncode(page.header, tuples)))
+            throw new AssertionError("encoders disagree");
+    }
+}
@@ -6,6 +6,7 @@ import minibase.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -13,6 +14,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends MiniBaseTestBase {
@@ -99,6 +101,69 @@ public class HeapPageReadTest extends MiniBaseTestBase {
         }
     }
 
+    /**
+     * Threads reading one page at once all get the same tuples, with the
+     * right values.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+            final Tuple[][] seen = new Tuple[4][EXAMPLE_VALUES.length];
+            final Throwable[] error = new Throwable[1];
+            Thread[] readers = new Thread[seen.length];
+            for (int t = 0; t < readers.length; t++) {
+                final Tuple[] mine = seen[t];
+                readers[t] = new Thread() {
+                    public void run() {
+                        try {
+                            Iterator<Tuple> it = page.iterator();
+                            for (int row = 0; it.hasNext(); row++) {
+                                mine[row] = it.next();
+                                assertEquals(EXAMPLE_VALUES[row][0], ((IntField) mine[row].getField(0)).getValue());
+                                assertEquals(EXAMPLE_VALUES[row][1], ((IntField) mine[row].getField(1)).getValue());
+                            }
+                        } catch (Throwable e) {
+                            synchronized (error) {
+                                error[0] = e;
+                            }
+                        }
+                    }
+                };
+            }
+            for (Thread r : readers)
+                r.start();
+            for (Thread r : readers)
+                r.join();
+            synchronized (error) {
+                if (error[0] != null)
+                    throw new AssertionError(error[0]);
+            }
+            for (int t = 1; t < seen.length; t++) {
+                for (int row = 0; row < EXAMPLE_VALUES.length; row++)
+                    assertTrue(seen[0][row] == seen[t][row]);
+            }
+        }
+    }
+
+    /**
+     * A string whose length is out of range, as in the garbage of a reused
+     * frame, fails to parse before anything is allocated for it.
+     */
+    @Test public void parseRejectsBadStringLength() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(Type.STRING_TYPE.getLen());
+        for (int len : new int[] { Integer.MAX_VALUE, Type.STRING_LEN + 1, -1 }) {
+            buf.putInt(0, len);
+            try {
+                Type.STRING_TYPE.parse(buf, 0);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        buf.putInt(0, Type.STRING_LEN);
+        assertEquals(Type.STRING_LEN, ((StringField) Type.STRING_TYPE.parse(buf, 0)).getValue().length());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -120,6 +185,28 @@ public class HeapPageReadTest extends MiniBaseTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page that was only read
+     */
+    @Test public void getPageDataUnmodified() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Tuples decoded lazily keep their values after the page is modified
+     */
+    @Test public void tupleSurvivesPageChange() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, -2 }));
+
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertFalse(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,29 @@ public class HeapPageWriteTest extends MiniBaseTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after the page was modified: the
+     * encoded bytes read back as the same page, and the before image still
+     * holds the bytes the page was read from.
+     */
+    @Test public void getPageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        Tuple addition = Utility.getHeapTuple(new int[] { 7, 8 });
+        page.insertTuple(addition);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData().clone());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext())
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        assertEquals(false, actual.hasNext());
+
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,74 @@
+package minibase;
+
+import java.util.ArrayList;
+
+/**
+ * Measures how lock acquisition scales with threads when there is no
+ * contention: each thread runs transactions that lock pages only it uses,
+ * then release them all. The lock table is run as one stripe, as it was
+ * before it was split, and with the default number of stripes; with one
+ * stripe every grant and release is serialized, with many they only meet
+ * when their pages hash to the same stripe.
+ * <p>
+ * Run with: ant runbench -Dbench=LockManagerBenchmark
+ *     [-Dbench.args="maxThreads pagesPerTransaction transactions"]
+ */
+public class LockManagerBenchmark {
+
+    /**
+     * @return lock grants per second, over all threads
+     */
+    static double locksPerSecond(final LockManager lm, int threads, final int pages,
+            final int transactions) throws Exception {
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            // a table of its own, so that not even intention locks are shared
+            final int table = t + 1;
+            Thread w = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < pages; j++) {
+                                lm.requestLock(tid, new HeapPageId(table, j),
+                                        j % 4 == 0 ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                            }
+                            lm.releaseAllPages(tid);
+                        }
+                    } catch (TransactionAbortedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers.add(w);
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return (double) threads * transactions * pages / seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + pages + " page locks per transaction, " + transactions + " transactions per thread");
+
+        int[] stripes = { 1, LockManager.DEFAULT_STRIPES };
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int s : stripes) {
+                // once to warm up the JIT, then measured
+                locksPerSecond(new LockManager(s), threads, pages, transactions / 4);
+                double rate = locksPerSecond(new LockManager(s), threads, pages, transactions);
+                System.out.printf("%3d threads, %3d stripes : %,12.0f locks/s%n", threads, s, rate);
+            }
+            if (threads < maxThreads && threads * 2 > maxThreads)
+                threads = maxThreads / 2;
+        }
+    }
+}
@@ -3,7 +3,14 @@ package minibase;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +193,128 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Waiting requests are granted in the order they came, and a new request
+   * does not overtake them.
+   */
+  @Test public void grantsInArrivalOrder() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    // compatible with tid1's lock, but behind the writer
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid1);
+    writer.join(TIMEOUT * 10);
+    assertTrue(writer.acquired());
+    Thread.sleep(TIMEOUT);
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid2);
+    reader.join(TIMEOUT * 10);
+    assertTrue(reader.acquired());
+    assertNull(writer.getError());
+    assertNull(reader.getError());
+  }
+
+  /**
+   * A transaction waiting for a lock sleeps instead of using the CPU.
+   */
+  @Test public void waitersSleep() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadCpuTimeSupported());
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    long before = threads.getThreadCpuTime(t.getId());
+    Thread.sleep(5 * TIMEOUT);
+    long used = threads.getThreadCpuTime(t.getId()) - before;
+    assertTrue("waiter used " + used / 1000000 + " ms of CPU", used < 5 * TIMEOUT * 1000000L / 10);
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT * 10);
+    assertTrue(t.acquired());
+  }
+
+  /**
+   * Interrupting a waiting transaction aborts it and takes it out of the
+   * queue, so those behind it still get the lock.
+   */
+  @Test public void interruptAborts() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber first = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    first.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber second = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    second.start();
+    Thread.sleep(TIMEOUT);
+
+    first.interrupt();
+    first.join(TIMEOUT * 10);
+    assertTrue(first.getError() instanceof TransactionAbortedException);
+
+    bp.transactionComplete(tid1);
+    second.join(TIMEOUT * 10);
+    assertTrue(second.acquired());
+  }
+
+  /**
+   * Past the escalation threshold, a reader's page locks become a shared
+   * lock on the table: it covers every page, other readers go on, and
+   * writers wait.
+   */
+  @Test public void escalateToTableLock() throws Exception {
+    bp.setLockEscalation(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid1, p2));
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(new TransactionId(), p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * A scan holds a bounded number of locks; escalation waits until no
+   * other transaction holds a conflicting intention lock on the table, and
+   * writes escalate to an exclusive table lock.
+   */
+  @Test public void escalationBoundsLocks() throws Exception {
+    LockManager lm = new LockManager();
+    lm.setEscalationThreshold(100);
+    int table = empty.getId();
+    for (int i = 0; i < 10000; i++)
+      lm.requestLock(tid1, new HeapPageId(table, i), Permissions.READ_ONLY);
+    assertEquals(1, lm.locksHeld(tid1));
+    assertEquals(LockManager.Mode.S, lm.tableLock(tid1, table));
+    lm.releaseAllPages(tid1);
+
+    lm.requestLock(tid2, new HeapPageId(table, 0), Permissions.READ_WRITE);
+    for (int i = 1; i <= 200; i++)
+      lm.requestLock(tid1, new HeapPageId(table, i), Permissions.READ_ONLY);
+    assertEquals(201, lm.locksHeld(tid1));
+    assertEquals(LockManager.Mode.IS, lm.tableLock(tid1, table));
+    lm.releaseAllPages(tid2);
+    lm.requestLock(tid1, new HeapPageId(table, 201), Permissions.READ_ONLY);
+    assertEquals(1, lm.locksHeld(tid1));
+    lm.releaseAllPages(tid1);
+
+    for (int i = 0; i < 200; i++)
+      lm.requestLock(tid2, new HeapPageId(table, i), Permissions.READ_WRITE);
+    assertEquals(LockManager.Mode.X, lm.tableLock(tid2, table));
+    assertFalse(lm.tryLock(tid1, new HeapPageId(table, 500), Permissions.READ_ONLY));
+    assertEquals(0, lm.locksHeld(tid1));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,46 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+
+public class LruCacheTest extends MiniBaseTestBase {
+
+    /**
+     * A full cache makes room by evicting the entry used least recently.
+     */
+    @Test public void evictsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals("a", cache.get(1));
+        cache.put(4, "d");
+        assertEquals(3, cache.size());
+        assertFalse(cache.isCached(2));
+
+        Iterator<String> it = cache.iterator();
+        assertEquals("c", it.next());
+        assertEquals("a", it.next());
+        assertEquals("d", it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals("c", cache.evict());
+        assertEquals("a", cache.remove(1));
+        assertEquals("d", cache.evict());
+        assertNull(cache.evict());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LruCacheTest.class);
+    }
+}
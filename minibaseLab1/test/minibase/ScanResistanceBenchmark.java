@@ -0,0 +1,128 @@
+package minibase;
+
+import minibase.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the buffer pool hit ratio of an OLTP workload, threads running
+ * short transactions over random pages of a table that fits in the pool, while another thread keeps
+ * scanning a table larger than the pool. Each replacement policy is run
+ * with scans read into the main pool and through a scan ring.
+ * <p>
+ * Run with: ant runbench -Dbench=ScanResistanceBenchmark
+ *     [-Dbench.args="poolPages hotPages scanPages threads accesses"]
+ */
+public class ScanResistanceBenchmark {
+
+    /** A HeapFile that counts its page reads. */
+    static class CountingFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    static double hitRatio(final CountingFile hot, final HeapFile big, int threads,
+            final int accesses) throws Exception {
+        // warm the pool with the hot table, then count from a clean slate
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++)
+            Database.getBufferPool().getPage(warm, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(warm);
+        hot.reads.set(0);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        TransactionId tid = new TransactionId();
+                        SeqScan scan = new SeqScan(tid, big.getId(), "");
+                        scan.open();
+                        while (scan.hasNext() && !done.get())
+                            scan.next();
+                        scan.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        scanner.start();
+
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Random rand = new Random(t);
+            Thread w = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < accesses; i += 4) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < 4; j++) {
+                                HeapPageId pid = new HeapPageId(hot.getId(), rand.nextInt(hot.numPages()));
+                                Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                            }
+                            Database.getBufferPool().transactionComplete(tid);
+                            // think time, so scans get through pages at their own pace
+                            Thread.sleep(1);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers)
+            w.join();
+        done.set(true);
+        scanner.join();
+        return 1.0 - (double) hot.reads.get() / ((long) threads * accesses);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        int scanPages = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int accesses = args.length > 4 ? Integer.parseInt(args[4]) : 8000;
+
+        // 2 int columns => 504 tuples per page
+        TupleDesc td = Utility.getTupleDesc(2);
+        CountingFile hot = new CountingFile(
+                SystemTestUtil.createRandomHeapFileUnopened(2, hotPages * 504, 1 << 16, null, null), td);
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, scanPages * 504, null, null);
+        System.out.println("pool of " + poolPages + " pages, " + hotPages + " hot pages, scans of "
+                + scanPages + " pages, " + threads + " threads x " + accesses + " accesses");
+
+        String[] names = { "LRU", "CLOCK", "LRU-2" };
+        for (int p = 0; p < names.length; p++) {
+            for (int ring = 0; ring < 2; ring++) {
+                ReplacementPolicy policy = p == 0 ? new LruPolicy()
+                        : p == 1 ? new ClockPolicy() : new LruKPolicy(2, poolPages);
+                BufferPool bp = Database.resetBufferPool(poolPages, policy);
+                if (ring == 0)
+                    bp.setRingPages(0);
+                System.out.printf("%-6s scan ring %-3s : hit ratio %.3f%n", names[p],
+                        ring == 0 ? "off" : "on", hitRatio(hot, big, threads, accesses));
+            }
+        }
+        hot.close();
+        big.close();
+    }
+}
@@ -0,0 +1,198 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+
+public class SlottedFileTest extends MiniBaseTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private File f;
+    private SlottedFile table;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createTable() throws Exception {
+        f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        table = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(table, "slotted" + f.getName());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private Set<String> scan(TransactionId tid) throws Exception {
+        Set<String> result = new HashSet<String>();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            result.add(t.getField(0) + ":" + t.getField(1));
+        }
+        ss.close();
+        return result;
+    }
+
+    /**
+     * Insert, Delete and SeqScan work on a SlottedFile as on a HeapFile.
+     */
+    @Test public void insertScanDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 500; i++) {
+            String name = "n" + Integer.toString(i * 7919, 36);
+            tuples.add(tuple(i, name));
+            if (i >= 250)
+                expected.add(i + ":" + name);
+        }
+
+        Insert ins = new Insert(tid, new TupleIterator(TD, tuples), table.getId());
+        ins.open();
+        assertEquals(500, ((IntField) ins.next().getField(0)).getValue());
+        ins.close();
+        assertEquals(500, scan(tid).size());
+
+        Filter low = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(250)),
+                new SeqScan(tid, table.getId(), ""));
+        Delete del = new Delete(tid, low);
+        del.open();
+        assertEquals(250, ((IntField) del.next().getField(0)).getValue());
+        del.close();
+        assertEquals(expected, scan(tid));
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        // a fresh file object reads the same tuples back from disk
+        Database.reset();
+        table = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(table, "slotted" + f.getName());
+        tid = new TransactionId();
+        assertEquals(expected, scan(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Short strings only take the space they need.
+     */
+    @Test public void shortRecordsPackDensely() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 150; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i, "abcdefghij"));
+        // a HeapPage holds 30 tuples of this schema; a record here is 20 bytes
+        assertEquals(1, table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Space left by deleted records is compacted and reused, and record ids
+     * of the remaining tuples don't change.
+     */
+    @Test public void deletedSpaceReused() throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        Tuple t = tuple(0, "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
+        while (page.canInsert(t)) {
+            page.insertTuple(t);
+            inserted.add(t);
+            t = tuple(inserted.size(), "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
+        }
+        int full = page.getNumTuples();
+        assertEquals(inserted.size(), full);
+
+        for (int i = 0; i < inserted.size(); i += 2)
+            page.deleteTuple(inserted.get(i));
+        Tuple kept = inserted.get(1);
+
+        // longer records than the holes they replace, so the page compacts
+        int added = 0;
+        Tuple big = tuple(-1, "yyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyy");
+        while (page.canInsert(big)) {
+            page.insertTuple(big);
+            added++;
+            big = tuple(-1 - added, "yyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyy");
+        }
+        assertTrue(added > 0);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData().clone());
+        assertEquals(full - (full + 1) / 2 + added, copy.getNumTuples());
+        boolean found = false;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext();) {
+            Tuple c = it.next();
+            if (c.getRecordId().equals(kept.getRecordId())) {
+                assertEquals(kept.getField(0), c.getField(0));
+                assertEquals(kept.getField(1), c.getField(1));
+                found = true;
+            }
+        }
+        assertTrue(found);
+
+        // the before image is unaffected by the changes
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * Concurrent inserts that each append a page all succeed, and no tuple
+     * is lost.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final int threads = 4, inserts = 100;
+        Thread[] workers = new Thread[threads];
+        final Exception[] errors = new Exception[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < inserts; j++) {
+                            TransactionId t = new TransactionId();
+                            Database.getBufferPool().insertTuple(t, table.getId(),
+                                    tuple(n * inserts + j, "name " + j));
+                            Database.getBufferPool().transactionComplete(t);
+                        }
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        for (Exception e : errors)
+            assertNull(e);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(threads * inserts, scan(tid).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,232 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+import minibase.systemtest.SystemTestUtil;
+
+public class SnapshotTest extends MiniBaseTestBase {
+    /** Time to wait before checking whether a page was got, in ms */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile f;
+    private HeapPageId pid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // one page of 100 tuples
+        File small = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        f = Utility.openHeapFile(2, "c", small);
+        pid = new HeapPageId(f.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static int count(Page page) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        return count(bp.getPage(tid, pid, Permissions.READ_ONLY));
+    }
+
+    private TransactionId snapshot() {
+        TransactionId tid = new TransactionId();
+        bp.beginSnapshot(tid);
+        return tid;
+    }
+
+    private void insert(TransactionId tid, int v) throws Exception {
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { v, v }));
+    }
+
+    private void commitInsert(int v) throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, v);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A snapshot sees the commits made before it started and none after,
+     * also once a later commit replaced the page it read; the images kept
+     * for it go when it ends.
+     */
+    @Test public void seesCommitsBeforeStart() throws Exception {
+        commitInsert(-1);
+        TransactionId snap = snapshot();
+        commitInsert(-2);
+        TransactionId later = snapshot();
+        commitInsert(-3);
+
+        assertEquals(101, count(snap));
+        assertEquals(102, count(later));
+        TransactionId tid = new TransactionId();
+        assertEquals(103, count(tid));
+        bp.transactionComplete(tid);
+        assertTrue(bp.getVersionedPages() > 0);
+
+        bp.transactionComplete(snap);
+        assertEquals(102, count(later));
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getVersionedPages());
+    }
+
+    /**
+     * The same with a background writer, where a commit logs its pages
+     * instead of writing them.
+     */
+    @Test public void seesCommitsBeforeStartWithWriter() throws Exception {
+        bp.startWriter(1.0, 1000);
+        try {
+            seesCommitsBeforeStart();
+        } finally {
+            bp.stopWriter();
+        }
+    }
+
+    /**
+     * A snapshot reads a page a writer has locked without waiting, and
+     * doesn't see the uncommitted change; the writer doesn't wait for it
+     * either, and an abort leaves the snapshot as it was.
+     */
+    @Test public void readersAndWritersDontWait() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, -1);
+
+        TransactionId snap = snapshot();
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(snap, pid, Permissions.READ_ONLY);
+        t.start();
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertEquals(100, count(snap));
+        bp.transactionComplete(writer, false);
+
+        TransactionId other = new TransactionId();
+        t = new TestUtil.LockGrabber(other, pid, Permissions.READ_WRITE);
+        t.start();
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(snap, pid));
+        bp.transactionComplete(other);
+
+        assertEquals(100, count(snap));
+        bp.transactionComplete(snap);
+    }
+
+    /**
+     * A scan of a snapshot sees every tuple that was committed when it
+     * started, though they are deleted meanwhile.
+     */
+    @Test public void scanIgnoresLaterDeletes() throws Exception {
+        TransactionId snap = snapshot();
+        SeqScan scan = new SeqScan(snap, f.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (n++ % 2 == 0) {
+                TransactionId tid = new TransactionId();
+                bp.deleteTuple(tid, t);
+                bp.transactionComplete(tid);
+            }
+        }
+        scan.close();
+        assertEquals(100, n);
+        bp.transactionComplete(snap);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(50, count(tid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A snapshot cannot change pages.
+     */
+    @Test public void readOnly() throws Exception {
+        TransactionId snap = snapshot();
+        try {
+            insert(snap, -1);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(snap);
+        TransactionId tid = new TransactionId();
+        assertEquals(100, count(tid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A read-only transaction reads a snapshot and writes no log records.
+     */
+    @Test public void readOnlyTransaction() throws Exception {
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        Transaction t = new Transaction(true);
+        t.start();
+        assertTrue(bp.isSnapshot(t.getId()));
+        assertEquals(100, count(t.getId()));
+        t.commit();
+        assertFalse(bp.isSnapshot(t.getId()));
+        assertEquals(records, log.getTotalRecords());
+
+        // BEGIN and COMMIT
+        t = new Transaction();
+        t.start();
+        t.commit();
+        assertEquals(records + 2, log.getTotalRecords());
+    }
+
+    /**
+     * The Parser runs a query on its own, and the queries of a transaction
+     * set READ ONLY, as read-only transactions.
+     */
+    @Test public void parserReadsSnapshots() throws Exception {
+        // the random names of the tables are no SQL identifiers; the
+        // optimizer needs a join
+        HeapFile g = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        Database.getCatalog().addTable(f, "snap_f");
+        Database.getCatalog().addTable(g, "snap_g");
+        TableStats.setTableStats("snap_f", new TableStats(f.getId(), 1));
+        TableStats.setTableStats("snap_g", new TableStats(g.getId(), 1));
+        String query = "SELECT * FROM snap_f, snap_g WHERE snap_f.c0 = snap_g.c0;";
+
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        Parser p = new Parser();
+        PrintStream out = System.out;
+        ByteArrayOutputStream shown = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(shown));
+        try {
+            p.processNextStatement(query);
+            p.processNextStatement("SET TRANSACTION READ ONLY;");
+            assertTrue(p.getTransaction().isReadOnly());
+            p.processNextStatement(query);
+            p.processNextStatement("COMMIT;");
+            assertNull(p.getTransaction());
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals(2, shown.toString().split(" rows\\.").length - 1);
+        assertEquals(records, log.getTotalRecords());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -220,6 +220,9 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void close() {
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -385,6 +388,8 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            new File(emptyFile.getPath() + ".fsm").deleteOnExit();
+            new File(emptyFile.getPath() + ".zm").deleteOnExit();
         }
 
         protected void setUp() throws Exception {
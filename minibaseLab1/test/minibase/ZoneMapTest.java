@@ -0,0 +1,176 @@
+package minibase;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import minibase.systemtest.MiniBaseTestBase;
+import minibase.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends MiniBaseTestBase {
+    private static final int ROWS = 3000;
+
+    private File f;
+    private HeapFile table;
+
+    /**
+     * Create a two-column table clustered on its first column.
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(ROWS - i);
+            tuples.add(tuple);
+        }
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        table = Utility.openHeapFile(2, f);
+    }
+
+    /**
+     * Runs a filter over a scan of the table.
+     *
+     * @return the number of tuples returned; pages read stay locked by tid
+     */
+    private int count(TransactionId tid, Predicate p) throws Exception {
+        Filter filter = new Filter(p, new SeqScan(tid, table.getId(), "", null, p));
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        return n;
+    }
+
+    private int pagesRead(TransactionId tid) {
+        int n = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Once a filtered scan has seen every page, a range filter only reads
+     * the pages that may hold matching tuples.
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(10, count(tid, p));
+        assertEquals(table.numPages(), pagesRead(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(10, count(tid, p));
+        assertEquals(1, pagesRead(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // bounds are kept per column
+        tid = new TransactionId();
+        assertEquals(ROWS, count(tid, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0))));
+        assertEquals(0, count(tid, new Predicate(0, Predicate.Op.EQUALS, new IntField(-1))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A plan built from a query passes its filter to the scan under it.
+     */
+    @Test public void planSkipsPages() throws Exception {
+        // the optimizer needs a join; every tuple of t matches the one of u
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 1, 1, null, null, "u");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile hf : new HeapFile[] { table, other })
+            stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1));
+        String field = "t." + table.getTupleDesc().getFieldName(0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addScan(other.getId(), "u");
+        lp.addFilter(field, Predicate.Op.GREATER_THAN_OR_EQ, String.valueOf(ROWS - 10));
+        lp.addJoin(field, "u.u0", Predicate.Op.GREATER_THAN_OR_EQ);
+        lp.addProjectField("*", null);
+
+        for (int round = 0; round < 2; round++) {
+            TransactionId tid = new TransactionId();
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            plan.open();
+            int n = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                n++;
+            }
+            plan.close();
+            assertEquals(10, n);
+            // the first scan measures every page
+            assertEquals(round == 0 ? table.numPages() : 1, pagesRead(tid));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Inserts widen the bounds of their page, so the new tuple is found.
+     */
+    @Test public void insertWidensBounds() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS));
+        TransactionId tid = new TransactionId();
+        assertEquals(0, count(tid, p));
+
+        // free a slot on page 0 so the insert goes there
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 100000, 0 }));
+
+        assertEquals(1, count(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The map is saved on close and loaded again, but not if the table
+     * changed behind its back.
+     */
+    @Test public void savedAndLoaded() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5));
+        TransactionId tid = new TransactionId();
+        assertEquals(5, count(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+        table.close();
+
+        File side = new File(f.getPath() + ".zm");
+        assertTrue(side.exists());
+        assertNotNull(ZoneMap.load(side, f, table.getTupleDesc()));
+        assertFalse(side.exists());
+
+        // a fresh map written for the table as it is now
+        table.getZoneMap();
+        table.close();
+        assertTrue(side.exists());
+        f.setLastModified(f.lastModified() - 10000);
+        assertNull(ZoneMap.load(side, f, table.getTupleDesc()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
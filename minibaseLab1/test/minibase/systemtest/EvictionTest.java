@@ -2,8 +2,11 @@ package minibase.systemtest;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -39,6 +42,59 @@ public class EvictionTest extends MiniBaseTestBase {
         }
     }
 
+    /**
+     * Runs a skewed read workload against a pool of BUFFER_PAGES pages that
+     * evicts with policy: 80% of the requests go to a few hot pages, the
+     * rest to a scan that walks once through a much larger table.
+     *
+     * @return the fraction of requests served without reading the page
+     */
+    private static double skewedHitRatio(ReplacementPolicy policy, File data) throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        HeapFile f = new HeapFile(data, Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BUFFER_PAGES, policy).setReadAhead(0);
+
+        final int hotPages = BUFFER_PAGES * 3 / 4, requests = 20000;
+        Random r = new Random(7);
+        TransactionId tid = new TransactionId();
+        int scanPage = hotPages;
+        for (int i = 0; i < requests; i++) {
+            int pgNo;
+            if (r.nextInt(10) < 8) {
+                pgNo = r.nextInt(hotPages);
+            } else {
+                pgNo = scanPage++;
+                if (scanPage == f.numPages())
+                    scanPage = hotPages;
+            }
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return 1 - (double) reads.get() / requests;
+    }
+
+    /**
+     * LRU-2 keeps the hot pages of a skewed workload cached while a scan
+     * goes by; LRU and CLOCK let the scan push them out.
+     */
+    @Test public void testSkewedHitRatio() throws Exception {
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10 * BUFFER_PAGES, 1 << 16, null, null);
+        double lru = skewedHitRatio(new LruPolicy(), data);
+        double clock = skewedHitRatio(new ClockPolicy(), data);
+        double lru2 = skewedHitRatio(new LruKPolicy(2, BUFFER_PAGES), data);
+        assertTrue("LRU-2 hit ratio " + lru2, lru2 > 0.75);
+        assertTrue("LRU-2 " + lru2 + " vs LRU " + lru, lru2 > lru);
+        assertTrue("LRU-2 " + lru2 + " vs CLOCK " + clock, lru2 > clock);
+    }
+
     public static void insertRow(HeapFile f, Transaction t) throws DbException,
             TransactionAbortedException {
         // Create a row to insert
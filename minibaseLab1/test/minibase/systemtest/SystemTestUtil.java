@@ -82,6 +82,8 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        new File(temp.getPath() + ".fsm").deleteOnExit();
+        new File(temp.getPath() + ".zm").deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return temp;
     }